@@ -2,19 +2,28 @@ package client.gui;
 
 import client.gui.components.MessageBubble;
 import model.User;
+import server.log.MappedLogReader;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.BufferedReader;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 
 public class ChatLogViewer extends JFrame {
+    // Lines rendered at a time; more are loaded as the user scrolls down
+    private static final int WINDOW_LINES = 500;
+    
     private JPanel messagesPanel;
+    private JScrollPane scrollPane;
+    private MappedLogReader logReader;
+    private long nextLine;
+    private boolean endReached;
     private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
     private Date lastDateHeader = null;
     private final SimpleDateFormat dateHeaderFormat = new SimpleDateFormat("MMMM d, yyyy");
@@ -29,9 +38,16 @@ public class ChatLogViewer extends JFrame {
         messagesPanel.setLayout(new BoxLayout(messagesPanel, BoxLayout.Y_AXIS));
         messagesPanel.setBackground(Color.WHITE);
         
-        JScrollPane scrollPane = new JScrollPane(messagesPanel);
+        scrollPane = new JScrollPane(messagesPanel);
         scrollPane.setBorder(null);
         scrollPane.getVerticalScrollBar().setUnitIncrement(16);
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = scrollPane.getVerticalScrollBar();
+            if (!endReached && logReader != null
+                    && e.getValue() + bar.getVisibleAmount() >= bar.getMaximum()) {
+                loadNextWindow();
+            }
+        });
         add(scrollPane, BorderLayout.CENTER);
         
         // Close button
@@ -42,6 +58,15 @@ public class ChatLogViewer extends JFrame {
         buttonPanel.add(closeButton);
         add(buttonPanel, BorderLayout.SOUTH);
         
+        // Release the log file when the viewer goes away
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                closeReader();
+            }
+        });
+        
         // Load and parse the log file
         loadLogFile(logFileName);
         
@@ -59,25 +84,53 @@ public class ChatLogViewer extends JFrame {
             return;
         }
         
-        try (BufferedReader reader = new BufferedReader(new FileReader(logFile))) {
-            String line;
-            
-            while ((line = reader.readLine()) != null) {
-                parseLine(line);
-            }
+        try {
+            logReader = new MappedLogReader(logFile.toPath());
+            loadNextWindow();
             
             // Scroll to the top
-            SwingUtilities.invokeLater(() -> {
-                JScrollPane scrollPane = (JScrollPane) getContentPane().getComponent(0);
-                JScrollBar verticalBar = scrollPane.getVerticalScrollBar();
-                verticalBar.setValue(0);
-            });
+            SwingUtilities.invokeLater(() -> scrollPane.getVerticalScrollBar().setValue(0));
             
         } catch (IOException e) {
-            JLabel errorLabel = new JLabel("Error reading log file: " + e.getMessage());
-            errorLabel.setForeground(Color.RED);
-            errorLabel.setHorizontalAlignment(SwingConstants.CENTER);
-            messagesPanel.add(errorLabel);
+            showReadError(e);
+        }
+    }
+    
+    // Renders the next window of lines; only that window is decoded from the mapped file
+    private void loadNextWindow() {
+        try {
+            List<String> lines = logReader.readLines(nextLine, WINDOW_LINES);
+            for (String line : lines) {
+                parseLine(line);
+            }
+            nextLine += lines.size();
+            endReached = lines.size() < WINDOW_LINES;
+        } catch (IOException e) {
+            endReached = true;
+            showReadError(e);
+        }
+        messagesPanel.revalidate();
+        messagesPanel.repaint();
+        if (endReached) {
+            closeReader();
+        }
+    }
+    
+    private void showReadError(IOException e) {
+        JLabel errorLabel = new JLabel("Error reading log file: " + e.getMessage());
+        errorLabel.setForeground(Color.RED);
+        errorLabel.setHorizontalAlignment(SwingConstants.CENTER);
+        messagesPanel.add(errorLabel);
+    }
+    
+    private void closeReader() {
+        if (logReader != null) {
+            try {
+                logReader.close();
+            } catch (IOException e) {
+                System.err.println("Error closing log file: " + e.getMessage());
+            }
+            logReader = null;
         }
     }
     
@@ -85,13 +138,24 @@ public class ChatLogViewer extends JFrame {
         // Check for message type identifiers
         String messageType = "TEXT";
         String content = line;
+        Date taggedTime = null;
         
-        // Extract message type from identifier if present
+        // Extract message type from identifier if present, e.g. [MSG|1700000000000]
         if (line.startsWith("[") && line.contains("]")) {
             int closeBracketPos = line.indexOf("]");
             if (closeBracketPos > 1) {
                 messageType = line.substring(1, closeBracketPos);
                 content = line.substring(closeBracketPos + 1);
+                
+                int barPos = messageType.indexOf("|");
+                if (barPos > 0) {
+                    try {
+                        taggedTime = new Date(Long.parseLong(messageType.substring(barPos + 1)));
+                    } catch (NumberFormatException e) {
+                        // Ignore a malformed time
+                    }
+                    messageType = messageType.substring(0, barPos);
+                }
             }
         }
         // If no identifier, try to detect message type
@@ -202,7 +266,13 @@ public class ChatLogViewer extends JFrame {
                     boolean isCurrentUser = sender.equals("anj"); // Ideally get this from actual current user
                     
                     // Add user message with the appropriate style
-                    MessageBubble messageBubble = new MessageBubble(senderUser, messageContent, isCurrentUser);
+                    MessageBubble messageBubble;
+                    if (taggedTime != null) {
+                        addDateHeaderIfNeeded(taggedTime);
+                        messageBubble = new MessageBubble(senderUser, messageContent, isCurrentUser, false, taggedTime);
+                    } else {
+                        messageBubble = new MessageBubble(senderUser, messageContent, isCurrentUser);
+                    }
                     messagesPanel.add(messageBubble);
                     messagesPanel.add(Box.createVerticalStrut(2));
                 }
@@ -230,9 +300,6 @@ public class ChatLogViewer extends JFrame {
                 messagesPanel.add(textLabel);
                 break;
         }
-        
-        messagesPanel.revalidate();
-        messagesPanel.repaint();
     }
     
     private void addDateHeaderIfNeeded(Date messageDate) {
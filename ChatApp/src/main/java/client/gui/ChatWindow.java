@@ -1,8 +1,11 @@
 package client.gui;
 
 import client.services.ChatClientImpl;
+import client.services.ConnectionManager;
 import model.Chat;
 import model.User;
+import server.observer.ChatEvent;
+import server.observer.PresenceUpdate;
 import server.rmi.ChatServer;
 
 import javax.swing.*;
@@ -15,6 +18,8 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 public class ChatWindow extends JFrame {
@@ -30,6 +35,7 @@ public class ChatWindow extends JFrame {
     private final ChatServer chatServer;
     private final ImageIcon userIcon;
     private Chat currentChat;
+    private final Set<String> onlineUsers = new LinkedHashSet<>();
     
     public ChatWindow(User user, ChatServer server, ChatClientImpl client, Chat chat) {
         this.currentUser = user;
@@ -138,7 +144,8 @@ public class ChatWindow extends JFrame {
         
         try {
             if (chatServer != null) {
-                chatServer.sendMessage(message, currentUser.getNickname());
+                ConnectionManager.sendMessage(chatServer, message, currentUser.getNickname(),
+                        ConnectionManager.newMessageId());
                 
                 
                 if (message.equalsIgnoreCase("Bye")) {
@@ -174,10 +181,25 @@ public class ChatWindow extends JFrame {
     }
     
     public void appendToChatArea(String message) {
-        if (chatArea != null) {
-            chatArea.append(message + "\n");
-            
-            chatArea.setCaretPosition(chatArea.getDocument().getLength());
+        // Called from RMI threads as well as the EDT
+        SwingUtilities.invokeLater(() -> {
+            if (chatArea != null) {
+                chatArea.append(message + "\n");
+                
+                chatArea.setCaretPosition(chatArea.getDocument().getLength());
+            }
+        });
+    }
+    
+    public void appendMessages(List<String> messages) {
+        for (String message : messages) {
+            appendToChatArea(message);
+        }
+    }
+    
+    public void appendEvents(List<ChatEvent> events) {
+        for (ChatEvent event : events) {
+            appendToChatArea(event.toLegacyMessage());
         }
     }
     
@@ -199,6 +221,18 @@ public class ChatWindow extends JFrame {
         }
     }
     
+    /**
+     * Patches the online users with a presence change; a snapshot replaces them.
+     */
+    public void updatePresence(PresenceUpdate update) {
+        if (update.isSnapshot()) {
+            onlineUsers.clear();
+        }
+        onlineUsers.removeAll(Arrays.asList(update.getLeft()));
+        onlineUsers.addAll(Arrays.asList(update.getJoined()));
+        updateUserList(onlineUsers.toArray(new String[0]));
+    }
+    
     private String getCurrentTime() {
         SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
         return sdf.format(new Date());
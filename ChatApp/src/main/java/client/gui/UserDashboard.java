@@ -9,7 +9,14 @@ import dao.ChatDAO;
 import dao.UserDAO;
 import model.Chat;
 import model.User;
+import server.observer.ChatEvent;
+import server.observer.PresenceUpdate;
+import server.delivery.LegacyClients;
 import server.rmi.ChatServer;
+import server.rmi.HistoryPage;
+import server.rmi.ChatBusyException;
+import server.rmi.RateLimitedException;
+import server.rmi.ResumeResult;
 import dao.MessageDAO;
 import client.gui.components.ChatPanel;
 
@@ -38,7 +45,10 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 public class UserDashboard extends JFrame {
@@ -53,6 +63,9 @@ public class UserDashboard extends JFrame {
     private JCheckBox themeSwitcherCheckBox;
     private JLabel profileImageLabel;
 
+    private static final int HISTORY_PAGE_SIZE = 50;
+    private static final int CONNECTION_CHECK_INTERVAL_MS = 15000;
+
     private static boolean isDarkMode = false; // To persist theme choice within session
 
     // Colors & Fonts (can be centralized later)
@@ -69,8 +82,18 @@ public class UserDashboard extends JFrame {
     private Chat currentChat;
     private JTextArea chatArea;
     private JTextField messageField;
+    private long sendBlockedUntil;
+    // Times a message is sent again when the server says the chat is busy
+    private static final int BUSY_RETRIES = 3;
     private ChatPanel chatPanel;
     private JPanel onlineUsersPanel;
+    private JLabel onlineUsersPlaceholder;
+    // Rows of the online users panel by nickname, patched in place by presence updates
+    private final Map<String, JPanel> onlineUserPanels = new LinkedHashMap<>();
+    private long presenceVersion = -1;
+    private ChatWindow chatWindowCallback;
+    private Timer connectionCheckTimer;
+    private boolean reconnecting;
 
     public UserDashboard(User user) {
         this.currentUser = user;
@@ -358,6 +381,9 @@ public class UserDashboard extends JFrame {
             this.currentChat = chat;
             this.isChatActive = true;
             
+            // Positions from an earlier visit may belong to a log that has since been replaced
+            ConnectionManager.getInstance().forgetSeen(chat.getId());
+            
             // Clear the homeTabPanel and set up for chat display
             homeTabPanel.removeAll();
             
@@ -372,16 +398,31 @@ public class UserDashboard extends JFrame {
             if (chatServer != null) {
                 try {
                     // Create a simplified ChatWindow for callback
-                    ChatWindow chatWindowCallback = new ChatWindow() {
+                    chatWindowCallback = new ChatWindow() {
                         @Override
                         public void appendToChatArea(String message) {
                             UserDashboard.this.appendToChatArea(message);
                         }
                         
+                        @Override
+                        public void appendMessages(List<String> messages) {
+                            UserDashboard.this.appendMessages(messages);
+                        }
+                        
+                        @Override
+                        public void appendEvents(List<ChatEvent> events) {
+                            UserDashboard.this.appendEvents(events);
+                        }
+                        
                         @Override
                         public void updateUserList(String[] users) {
                             UserDashboard.this.updateUserList(users);
                         }
+                        
+                        @Override
+                        public void updatePresence(PresenceUpdate update) {
+                            UserDashboard.this.updatePresence(update);
+                        }
                     };
                     
                     // Create new client for this chat
@@ -389,7 +430,11 @@ public class UserDashboard extends JFrame {
                     this.chatClient.setChatWindow(chatWindowCallback);
                     
                     // Join the existing chat with its ID
-                    chatServer.registerClientToChat(chatClient, currentUser.getNickname(), chat.getId());
+                    ConnectionManager.registerClientToChat(chatServer, chatClient, currentUser.getNickname(), chat.getId());
+                    startConnectionCheck();
+                } catch (RateLimitedException | ChatBusyException e) {
+                    // Refused for now, the connection is fine; the message says when to try again
+                    throw new Exception(e.getMessage());
                 } catch (RemoteException e) {
                     throw new Exception("Failed to register with chat server: " + e.getMessage());
                 }
@@ -453,12 +498,14 @@ public class UserDashboard extends JFrame {
         onlineUsersPanel.setPreferredSize(new Dimension(180, 0));
         
         // Add placeholder text for online users
-        JLabel waitingLabel = new JLabel("Waiting for users...", SwingConstants.CENTER);
-        waitingLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
-        waitingLabel.setFont(GENERAL_FONT);
-        waitingLabel.setForeground(Color.GRAY);
+        onlineUsersPlaceholder = new JLabel("Waiting for users...", SwingConstants.CENTER);
+        onlineUsersPlaceholder.setAlignmentX(Component.CENTER_ALIGNMENT);
+        onlineUsersPlaceholder.setFont(GENERAL_FONT);
+        onlineUsersPlaceholder.setForeground(Color.GRAY);
         onlineUsersPanel.add(Box.createVerticalStrut(10));
-        onlineUsersPanel.add(waitingLabel);
+        onlineUsersPanel.add(onlineUsersPlaceholder);
+        onlineUserPanels.clear();
+        presenceVersion = -1;
         
         // Add chat and users to content panel
         contentPanel.add(chatPanel, BorderLayout.CENTER);
@@ -501,6 +548,8 @@ public class UserDashboard extends JFrame {
             }
         }
         
+        stopConnectionCheck();
+        
         // Reset chat state
         this.isChatActive = false;
         this.currentChat = null;
@@ -515,13 +564,24 @@ public class UserDashboard extends JFrame {
         String message = messageField.getText().trim();
         if (message.isEmpty()) return;
         
+        // The server asked us to hold off, it would only refuse the message again
+        if (System.currentTimeMillis() < sendBlockedUntil) {
+            Toolkit.getDefaultToolkit().beep();
+            return;
+        }
+        
+        // The same id is used if the send has to be retried, so it is posted only once
+        sendMessage(message, ConnectionManager.newMessageId(), BUSY_RETRIES);
+    }
+    
+    private void sendMessage(String message, long messageId, int busyRetries) {
         try {
             // Check for "Bye" command
             if (message.equalsIgnoreCase("Bye")) {
                 // Send the message first
                 ChatServer chatServer = ConnectionManager.getInstance().getChatServer();
                 if (chatServer != null) {
-                    chatServer.sendMessage(message, currentUser.getNickname());
+                    ConnectionManager.getInstance().sendMessage(message, currentUser.getNickname(), messageId);
                 }
                 
                 // Then exit the chat
@@ -532,9 +592,36 @@ public class UserDashboard extends JFrame {
             // For regular messages
             ChatServer chatServer = ConnectionManager.getInstance().getChatServer();
             if (chatServer != null) {
-                chatServer.sendMessage(message, currentUser.getNickname());
-                messageField.setText("");
+                try {
+                    ConnectionManager.getInstance().sendMessage(message, currentUser.getNickname(), messageId);
+                } catch (RateLimitedException | ChatBusyException e) {
+                    throw e;
+                } catch (RemoteException e) {
+                    // The connection may have dropped (e.g. after sleep), resume and retry once
+                    if (!reconnectToChat()) {
+                        throw e;
+                    }
+                    ConnectionManager.getInstance().sendMessage(message, currentUser.getNickname(), messageId);
+                }
+                // A retry may finish after the user started typing the next message
+                if (messageField.getText().trim().equals(message)) {
+                    messageField.setText("");
+                }
+            }
+        } catch (ChatBusyException e) {
+            if (busyRetries > 0) {
+                // Nothing is wrong with the connection, just send again a little later
+                Timer retry = new Timer((int) e.getRetryAfterMillis(),
+                        ev -> sendMessage(message, messageId, busyRetries - 1));
+                retry.setRepeats(false);
+                retry.start();
+            } else {
+                JOptionPane.showMessageDialog(this, e.getMessage(), "Chat busy", JOptionPane.WARNING_MESSAGE);
             }
+        } catch (RateLimitedException e) {
+            // Keep the text so it can be sent once the wait is over
+            sendBlockedUntil = System.currentTimeMillis() + e.getRetryAfterMillis();
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Slow down", JOptionPane.WARNING_MESSAGE);
         } catch (RemoteException e) {
             JOptionPane.showMessageDialog(this, 
                     "Error sending message: " + e.getMessage(), 
@@ -542,9 +629,159 @@ public class UserDashboard extends JFrame {
         }
     }
 
+    // The append methods are called from RMI threads, so the panel is updated on the EDT
+
     public void appendToChatArea(String message) {
-        if (chatPanel != null) {
-            chatPanel.addMessage(message);
+        SwingUtilities.invokeLater(() -> {
+            if (chatPanel != null) {
+                chatPanel.addMessage(message);
+            }
+        });
+    }
+
+    public void appendMessages(List<String> messages) {
+        SwingUtilities.invokeLater(() -> {
+            if (chatPanel != null) {
+                chatPanel.addMessages(messages);
+            }
+        });
+    }
+
+    public void appendEvents(List<ChatEvent> events) {
+        SwingUtilities.invokeLater(() -> {
+            if (chatPanel != null) {
+                chatPanel.addEvents(unseenEvents(events));
+            }
+        });
+    }
+    
+    // Drops events already shown (a replay can overlap what arrived live) and
+    // remembers the newest one so the chat can be resumed after a reconnect
+    private List<ChatEvent> unseenEvents(List<ChatEvent> events) {
+        Chat chat = currentChat;
+        if (chat == null) {
+            return events;
+        }
+        ConnectionManager connection = ConnectionManager.getInstance();
+        long lastSeen = connection.getLastSeen(chat.getId());
+        List<ChatEvent> unseen = new ArrayList<>(events.size());
+        for (ChatEvent event : events) {
+            if (event.getSequence() > lastSeen) {
+                unseen.add(event);
+                lastSeen = event.getSequence();
+            }
+        }
+        connection.recordSeen(chat.getId(), lastSeen);
+        return unseen;
+    }
+    
+    // Periodically renews our lease, which also tells us whether the server still has us;
+    // it drops clients whose lease ran out or whose callbacks fail, e.g. while a laptop sleeps
+    private void startConnectionCheck() {
+        stopConnectionCheck();
+        connectionCheckTimer = new Timer(CONNECTION_CHECK_INTERVAL_MS, e -> {
+            Chat chat = currentChat;
+            ChatClientImpl client = chatClient;
+            if (chat == null || client == null || reconnecting) {
+                return;
+            }
+            new SwingWorker<Long, Void>() {
+                @Override
+                protected Long doInBackground() {
+                    ChatServer server = ConnectionManager.getInstance().getChatServer();
+                    try {
+                        // Renewing the lease doubles as the check that the server still knows us
+                        return server.renewLease(client);
+                    } catch (RemoteException ex) {
+                        if (!LegacyClients.isUnsupportedMethod(ex)) {
+                            return 0L;
+                        }
+                    }
+                    // Servers without leases: just check the membership, there is no lease to renew
+                    try {
+                        return server.isInChat(client, chat.getId()) ? Long.MAX_VALUE : 0L;
+                    } catch (Exception ex) {
+                        return 0L;
+                    }
+                }
+                
+                @Override
+                protected void done() {
+                    try {
+                        long lease = get();
+                        if (lease <= 0) {
+                            if (chat == currentChat) {
+                                reconnectToChat();
+                            }
+                        } else if (connectionCheckTimer != null) {
+                            // Renew well before the lease runs out
+                            connectionCheckTimer.setDelay((int) Math.max(1000, Math.min(lease / 3, CONNECTION_CHECK_INTERVAL_MS)));
+                        }
+                    } catch (Exception ex) {
+                        System.err.println("Error checking connection: " + ex.getMessage());
+                    }
+                }
+            }.execute();
+        });
+        connectionCheckTimer.start();
+    }
+    
+    private void stopConnectionCheck() {
+        if (connectionCheckTimer != null) {
+            connectionCheckTimer.stop();
+            connectionCheckTimer = null;
+        }
+    }
+    
+    /**
+     * Rejoins the open chat on a fresh connection. The server replays only the events
+     * missed since the last one seen; if the gap is too large the history is reloaded.
+     *
+     * @return true if the chat is connected again
+     */
+    private boolean reconnectToChat() {
+        Chat chat = currentChat;
+        if (chat == null || reconnecting) {
+            return false;
+        }
+        reconnecting = true;
+        try {
+            ConnectionManager connection = ConnectionManager.getInstance();
+            if (!connection.resetConnection()) {
+                return false;
+            }
+            ChatServer server = connection.getChatServer();
+            ChatClientImpl client = new ChatClientImpl();
+            client.setChatWindow(chatWindowCallback);
+            
+            boolean resumed;
+            try {
+                ResumeResult result = server.resumeChat(client, currentUser.getNickname(), chat.getId(),
+                        connection.getLastSeen(chat.getId()));
+                resumed = result.isResumed();
+                System.out.println("Resumed chat " + chat.getId() + (resumed ? ", " + result.getReplayed() + " missed events replayed" : ""));
+            } catch (RemoteException e) {
+                if (!LegacyClients.isUnsupportedMethod(e)) {
+                    throw ConnectionManager.serverCause(e);
+                }
+                // Server without resume support
+                System.err.println("Could not resume chat, rejoining: " + e.getMessage());
+                ConnectionManager.registerClientToChat(server, client, currentUser.getNickname(), chat.getId());
+                resumed = false;
+            }
+            this.chatClient = client;
+            
+            if (!resumed) {
+                connection.forgetSeen(chat.getId());
+                chatPanel.clear();
+                loadChatHistory();
+            }
+            return true;
+        } catch (RemoteException e) {
+            System.err.println("Error reconnecting to chat: " + e.getMessage());
+            return false;
+        } finally {
+            reconnecting = false;
         }
     }
 
@@ -715,15 +952,67 @@ public class UserDashboard extends JFrame {
     }
 
     private void loadChatHistory() {
+        ChatServer chatServer = ConnectionManager.getInstance().getChatServer();
+        if (chatServer != null) {
+            try {
+                HistoryPage page = chatServer.getHistory(currentChat.getId(), HistoryPage.LATEST, HISTORY_PAGE_SIZE);
+                if (page.getEvents() != null) {
+                    chatPanel.addEvents(unseenEvents(page.getEvents()));
+                } else {
+                    chatPanel.addMessages(page.getLines());
+                }
+                setUpOlderHistoryLoading(currentChat, page);
+                return;
+            } catch (RemoteException e) {
+                System.err.println("Could not load history from server, reading local log: " + e.getMessage());
+            }
+        }
+        loadChatHistoryFromFile();
+    }
+    
+    // Fetches the page before the oldest one shown whenever the user scrolls to the top
+    private void setUpOlderHistoryLoading(Chat chat, HistoryPage page) {
+        if (!page.hasMore()) {
+            chatPanel.setOlderMessagesLoader(null);
+            return;
+        }
+        ChatPanel panel = chatPanel;
+        panel.setOlderMessagesLoader(() -> new SwingWorker<HistoryPage, Void>() {
+            @Override
+            protected HistoryPage doInBackground() throws Exception {
+                return ConnectionManager.getInstance().getChatServer()
+                        .getHistory(chat.getId(), page.getNextCursor(), HISTORY_PAGE_SIZE);
+            }
+            
+            @Override
+            protected void done() {
+                if (panel != chatPanel) {
+                    return; // The user has left this chat in the meantime
+                }
+                try {
+                    HistoryPage older = get();
+                    if (older.getEvents() != null) {
+                        panel.prependEvents(older.getEvents());
+                    } else {
+                        panel.prependMessages(older.getLines());
+                    }
+                    setUpOlderHistoryLoading(chat, older);
+                } catch (Exception e) {
+                    System.err.println("Error loading older messages: " + e.getMessage());
+                    panel.setOlderMessagesLoader(null);
+                }
+            }
+        }.execute());
+    }
+
+    private void loadChatHistoryFromFile() {
         String logFile = currentChat.getLogFile();
         if (logFile != null && !logFile.isEmpty()) {
             try {
                 File file = new File(logFile);
                 if (file.exists()) {
                     java.util.List<String> lines = java.nio.file.Files.readAllLines(file.toPath());
-                    for (String line : lines) {
-                        chatPanel.addMessage(line);
-                    }
+                    chatPanel.addMessages(lines);
                     System.out.println("Loaded chat history from: " + logFile);
                 }
             } catch (Exception e) {
@@ -733,36 +1022,112 @@ public class UserDashboard extends JFrame {
     }
 
   
+    /**
+     * Replaces the online users, for servers that send full lists.
+     */
     public void updateUserList(String[] users) {
-        if (onlineUsersPanel != null) {
-            onlineUsersPanel.removeAll();
-            onlineUsersPanel.add(Box.createVerticalStrut(10));
+        SwingUtilities.invokeLater(() -> {
+            if (onlineUsersPanel != null) {
+                String[] nicknames = users != null ? users : new String[0];
+                setOnlineUsers(nicknames, new int[nicknames.length]);
+                refreshOnlineUsers();
+            }
+        });
+    }
+    
+    public void updatePresence(PresenceUpdate update) {
+        SwingUtilities.invokeLater(() -> applyPresence(update));
+    }
+    
+    // Patches the online users panel; only users who joined get a new row (and a profile lookup)
+    private void applyPresence(PresenceUpdate update) {
+        Chat chat = currentChat;
+        if (chat == null || onlineUsersPanel == null || update.getChatId() != chat.getId()
+                || update.getVersion() <= presenceVersion) {
+            return;
+        }
+        if (update.isSnapshot()) {
+            setOnlineUsers(update.getJoined(), update.getJoinedUserIds());
+        } else if (presenceVersion < 0) {
+            // Changes that raced our own join; the snapshot that follows includes them
+            return;
+        } else if (update.getVersion() != presenceVersion + 1) {
+            requestPresenceSnapshot(chat);
+            return;
+        } else {
+            for (String nickname : update.getLeft()) {
+                removeOnlineUser(nickname);
+            }
+            String[] joined = update.getJoined();
+            int[] userIds = update.getJoinedUserIds();
+            for (int i = 0; i < joined.length; i++) {
+                addOnlineUser(joined[i], userIds[i]);
+            }
+        }
+        presenceVersion = update.getVersion();
+        refreshOnlineUsers();
+    }
+    
+    // An update was missed, fetch the full list
+    private void requestPresenceSnapshot(Chat chat) {
+        new SwingWorker<PresenceUpdate, Void>() {
+            @Override
+            protected PresenceUpdate doInBackground() throws Exception {
+                return ConnectionManager.getInstance().getChatServer().getPresence(chat.getId());
+            }
             
-            if (users == null || users.length == 0) {
-                JLabel noUsersLabel = new JLabel("No users online", SwingConstants.CENTER);
-                noUsersLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
-                noUsersLabel.setFont(GENERAL_FONT);
-                noUsersLabel.setForeground(Color.GRAY);
-                onlineUsersPanel.add(noUsersLabel);
-            } else {
-                for (String username : users) {
-                    JPanel userPanel = createOnlineUserPanel(username);
-                    onlineUsersPanel.add(userPanel);
-                    onlineUsersPanel.add(Box.createVerticalStrut(5));
+            @Override
+            protected void done() {
+                try {
+                    applyPresence(get());
+                } catch (Exception e) {
+                    System.err.println("Error loading online users: " + e.getMessage());
                 }
             }
-            
-            onlineUsersPanel.revalidate();
-            onlineUsersPanel.repaint();
+        }.execute();
+    }
+    
+    private void setOnlineUsers(String[] nicknames, int[] userIds) {
+        Set<String> current = new HashSet<>(Arrays.asList(nicknames));
+        for (String nickname : new ArrayList<>(onlineUserPanels.keySet())) {
+            if (!current.contains(nickname)) {
+                removeOnlineUser(nickname);
+            }
         }
+        for (int i = 0; i < nicknames.length; i++) {
+            addOnlineUser(nicknames[i], userIds[i]);
+        }
+    }
+    
+    private void addOnlineUser(String nickname, int userId) {
+        if (!onlineUserPanels.containsKey(nickname)) {
+            JPanel userPanel = createOnlineUserPanel(nickname, userId);
+            onlineUserPanels.put(nickname, userPanel);
+            onlineUsersPanel.add(userPanel);
+        }
+    }
+    
+    private void removeOnlineUser(String nickname) {
+        JPanel userPanel = onlineUserPanels.remove(nickname);
+        if (userPanel != null) {
+            onlineUsersPanel.remove(userPanel);
+        }
+    }
+    
+    private void refreshOnlineUsers() {
+        onlineUsersPlaceholder.setText("No users online");
+        onlineUsersPlaceholder.setVisible(onlineUserPanels.isEmpty());
+        onlineUsersPanel.revalidate();
+        onlineUsersPanel.repaint();
     }
 
     // Create an online user panel with profile image
-    private JPanel createOnlineUserPanel(String username) {
+    private JPanel createOnlineUserPanel(String username, int userId) {
         JPanel panel = new JPanel(new BorderLayout(10, 0));
         panel.setOpaque(false);
-        panel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
-        panel.setMaximumSize(new Dimension(Integer.MAX_VALUE, 40));
+        // The bottom inset spaces the rows, so a row can be removed on its own
+        panel.setBorder(BorderFactory.createEmptyBorder(5, 5, 10, 5));
+        panel.setMaximumSize(new Dimension(Integer.MAX_VALUE, 45));
         
         // Create avatar
         JLabel avatarLabel = new JLabel();
@@ -776,9 +1141,9 @@ public class UserDashboard extends JFrame {
             currentUser.getNickname().equals(username)) {
             user = currentUser;
         } else {
-            // Lookup the user in the database
+            // Lookup the user in the database, by id when the server sent one
             try {
-                user = userDAO.findByUsernameOrNickname(username);
+                user = userId != 0 ? userDAO.findById(userId) : userDAO.findByUsernameOrNickname(username);
             } catch (Exception e) {
                 System.err.println("Error fetching user profile: " + e.getMessage());
             }
@@ -201,12 +201,14 @@ public class ChatCard extends JPanel {
                     if (!lines.isEmpty()) {
                         // Find the latest actual message (not system messages)
                         String latestMsg = null;
+                        Date latestTime = null;
                         for (int i = lines.size() - 1; i >= 0; i--) {
                             String line = lines.get(i);
                             
                             // Check for proper message format with the identifier
-                            if (line.startsWith("[MSG]")) {
-                                latestMsg = line.substring(5); // Remove [MSG] prefix
+                            if (isMessageLine(line)) {
+                                latestMsg = line.substring(line.indexOf(']') + 1); // Remove [MSG] prefix
+                                latestTime = taggedTime(line);
                                 break;
                             } else if (line.contains(": ") && 
                                      !line.contains(" joined the chat at: ") && 
@@ -239,7 +241,9 @@ public class ChatCard extends JPanel {
                             // Try to extract time from message for the time label
                             Pattern timePattern = Pattern.compile("\\d{2}:\\d{2}(:\\d{2})?");
                             Matcher matcher = timePattern.matcher(latestMsg);
-                            if (matcher.find()) {
+                            if (latestTime != null) {
+                                timeLabel.setText(TIME_FORMAT.format(latestTime));
+                            } else if (matcher.find()) {
                                 timeLabel.setText(matcher.group());
                             } else {
                                 timeLabel.setText(TIME_FORMAT.format(new Date()));
@@ -256,6 +260,24 @@ public class ChatCard extends JPanel {
         }
     }
     
+    // Chat message lines are tagged [MSG], or [MSG|millis] when they carry the server time
+    private static boolean isMessageLine(String line) {
+        return line.startsWith("[MSG]") || line.startsWith("[MSG|");
+    }
+    
+    private static Date taggedTime(String line) {
+        int bar = line.indexOf('|');
+        int close = line.indexOf(']');
+        if (bar < 0 || close < bar) {
+            return null;
+        }
+        try {
+            return new Date(Long.parseLong(line.substring(bar + 1, close)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
     private void countUnreadMessages(java.util.List<String> lines) {
         int unread = 0;
         String lastLeavePattern = currentUser.getNickname() + " left the chat at: ";
@@ -274,7 +296,7 @@ public class ChatCard extends JPanel {
             for (int i = lines.size() - 1; i >= 0; i--) {
                 String line = lines.get(i);
                 
-                if (line.startsWith("[MSG]") && !line.contains(currentUser.getNickname() + ": ")) {
+                if (isMessageLine(line) && !line.contains(currentUser.getNickname() + ": ")) {
                     try {
                         // Extract timestamp if available and compare
                         int timeIndex = line.lastIndexOf(":");
@@ -293,7 +315,7 @@ public class ChatCard extends JPanel {
         } else {
             // If user never left, count all messages not from the user
             for (String line : lines) {
-                if (line.startsWith("[MSG]") && !line.contains(currentUser.getNickname() + ": ")) {
+                if (isMessageLine(line) && !line.contains(currentUser.getNickname() + ": ")) {
                     unread++;
                 }
             }
@@ -2,6 +2,8 @@ package client.gui.components;
 
 import model.User;
 import dao.UserDAO;
+import server.log.RecordType;
+import server.observer.ChatEvent;
 
 import javax.swing.*;
 import java.awt.*;
@@ -16,6 +18,9 @@ public class ChatPanel extends JPanel {
     private final SimpleDateFormat DATE_HEADER_FORMAT = new SimpleDateFormat("MMMM d, yyyy");
     private Date lastDateHeader = null;
     private final UserDAO userDAO;
+    private final JScrollPane scrollPane;
+    private Runnable olderMessagesLoader;
+    private boolean loadingOlder;
     
     public ChatPanel(User currentUser) {
         this.currentUser = currentUser;
@@ -29,24 +34,144 @@ public class ChatPanel extends JPanel {
         messagesPanel.setBackground(Color.WHITE);
         
         // Scroll pane for the messages panel
-        JScrollPane scrollPane = new JScrollPane(messagesPanel);
+        scrollPane = new JScrollPane(messagesPanel);
         scrollPane.setBorder(null);
         scrollPane.getVerticalScrollBar().setUnitIncrement(16);
         
+        // Ask for older messages when the user scrolls to the top
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = scrollPane.getVerticalScrollBar();
+            if (e.getValue() == 0 && bar.getMaximum() > bar.getVisibleAmount()
+                    && olderMessagesLoader != null && !loadingOlder) {
+                loadingOlder = true;
+                olderMessagesLoader.run();
+            }
+        });
+        
         add(scrollPane, BorderLayout.CENTER);
     }
     
     public void addMessage(String message) {
+        renderMessage(message);
+        refreshAndScrollToBottom();
+    }
+    
+    /**
+     * Renders a batch of messages with a single layout pass and scroll.
+     */
+    public void addMessages(java.util.List<String> messages) {
+        for (String message : messages) {
+            renderMessage(message);
+        }
+        refreshAndScrollToBottom();
+    }
+    
+    /**
+     * Renders a batch of structured events with a single layout pass and scroll.
+     */
+    public void addEvents(java.util.List<ChatEvent> events) {
+        for (ChatEvent event : events) {
+            renderEvent(event);
+        }
+        refreshAndScrollToBottom();
+    }
+    
+    /**
+     * Inserts older messages above the ones already shown, keeping the view where it was.
+     */
+    public void prependMessages(java.util.List<String> messages) {
+        prepend(!messages.isEmpty(), () -> {
+            for (String message : messages) {
+                renderMessage(message);
+            }
+        });
+    }
+    
+    public void prependEvents(java.util.List<ChatEvent> events) {
+        prepend(!events.isEmpty(), () -> {
+            for (ChatEvent event : events) {
+                renderEvent(event);
+            }
+        });
+    }
+    
+    private void prepend(boolean hasContent, Runnable render) {
+        loadingOlder = false;
+        if (!hasContent) {
+            return;
+        }
+        
+        JScrollBar verticalBar = scrollPane.getVerticalScrollBar();
+        int oldMaximum = verticalBar.getMaximum();
+        int oldValue = verticalBar.getValue();
+        
+        // Render at the end as usual, then move the new components to the top
+        int existing = messagesPanel.getComponentCount();
+        Date savedDateHeader = lastDateHeader;
+        lastDateHeader = null;
+        render.run();
+        lastDateHeader = savedDateHeader;
+        
+        int added = messagesPanel.getComponentCount() - existing;
+        for (int i = 0; i < added; i++) {
+            messagesPanel.add(messagesPanel.getComponent(existing + i), i);
+        }
+        
+        messagesPanel.revalidate();
+        messagesPanel.repaint();
+        SwingUtilities.invokeLater(() ->
+                verticalBar.setValue(oldValue + verticalBar.getMaximum() - oldMaximum));
+    }
+    
+    /**
+     * Called on the EDT when the user scrolls to the top. The loader must eventually call
+     * {@link #prependMessages} (possibly with an empty list) or {@link #setOlderMessagesLoader}
+     * before it is asked again.
+     */
+    public void setOlderMessagesLoader(Runnable olderMessagesLoader) {
+        this.olderMessagesLoader = olderMessagesLoader;
+        this.loadingOlder = false;
+    }
+    
+    // Events carry their type, sender and server time, so nothing needs parsing
+    private void renderEvent(ChatEvent event) {
+        RecordType type = event.getType();
+        if (type == RecordType.MSG) {
+            Date timestamp = event.getTimestamp() > 0 ? new Date(event.getTimestamp()) : new Date();
+            addDateHeaderIfNeeded(timestamp);
+            addUserMessage(event.getSender(), event.getBody(), timestamp);
+        } else if ((type == RecordType.JOIN || type == RecordType.LEAVE) && !event.getSender().isEmpty()) {
+            if (event.getTimestamp() > 0) {
+                addDateHeaderIfNeeded(new Date(event.getTimestamp()));
+            }
+            addSystemMessage(event.getSender() + (type == RecordType.JOIN ? " joined the chat" : " left the chat"));
+        } else {
+            renderMessage(event.toRecord().toTextLine());
+        }
+    }
+    
+    private void renderMessage(String message) {
         // Check for message type identifiers
         String messageType = "TEXT";
         String content = message;
+        Date taggedTime = null;
         
-        // Extract message type from identifier if present
+        // Extract message type from identifier if present, e.g. [MSG|1700000000000]
         if (message.startsWith("[") && message.contains("]")) {
             int closeBracketPos = message.indexOf("]");
             if (closeBracketPos > 1) {
                 messageType = message.substring(1, closeBracketPos);
                 content = message.substring(closeBracketPos + 1);
+                
+                int barPos = messageType.indexOf("|");
+                if (barPos > 0) {
+                    try {
+                        taggedTime = new Date(Long.parseLong(messageType.substring(barPos + 1)));
+                    } catch (NumberFormatException e) {
+                        // Ignore a malformed time
+                    }
+                    messageType = messageType.substring(0, barPos);
+                }
             }
         }
         
@@ -118,7 +243,10 @@ public class ChatPanel extends JPanel {
                 String messageContent = content.substring(colonPos + 2);
                 
                 // Get timestamp if available
-                Date timestamp = new Date();
+                Date timestamp = taggedTime != null ? taggedTime : new Date();
+                if (taggedTime != null) {
+                    addDateHeaderIfNeeded(timestamp);
+                }
                 
                 // Add user message with appropriate styling
                 addUserMessage(sender, messageContent, timestamp);
@@ -170,10 +298,14 @@ public class ChatPanel extends JPanel {
                 }
             }
         }
+    }
+    
+    private void refreshAndScrollToBottom() {
+        messagesPanel.revalidate();
+        messagesPanel.repaint();
         
         // Auto-scroll to the bottom
         SwingUtilities.invokeLater(() -> {
-            JScrollPane scrollPane = (JScrollPane) getComponent(0);
             JScrollBar verticalBar = scrollPane.getVerticalScrollBar();
             verticalBar.setValue(verticalBar.getMaximum());
         });
@@ -201,8 +333,6 @@ public class ChatPanel extends JPanel {
         MessageBubble systemBubble = new MessageBubble(null, formattedMessage, false, true, new Date());
         messagesPanel.add(systemBubble);
         messagesPanel.add(Box.createVerticalStrut(5));
-        messagesPanel.revalidate();
-        messagesPanel.repaint();
     }
     
     private void addUserMessage(String senderName, String content, Date timestamp) {
@@ -226,8 +356,6 @@ public class ChatPanel extends JPanel {
         MessageBubble messageBubble = new MessageBubble(sender, content, isCurrentUser, false, timestamp);
         messagesPanel.add(messageBubble);
         messagesPanel.add(Box.createVerticalStrut(2));
-        messagesPanel.revalidate();
-        messagesPanel.repaint();
     }
     
     private void addDateHeaderIfNeeded(Date messageDate) {
@@ -2,9 +2,14 @@ package client.services;
 
 import client.gui.ChatWindow;
 import server.observer.ChatClient;
+import server.observer.ChatEvent;
+import server.observer.PresenceUpdate;
 
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ChatClientImpl extends UnicastRemoteObject implements ChatClient {
     private ChatWindow chatWindow;
@@ -24,6 +29,33 @@ public class ChatClientImpl extends UnicastRemoteObject implements ChatClient {
         }
     }
     
+    @Override
+    public void receiveMessages(List<String> messages) throws RemoteException {
+        if (chatWindow != null) {
+            chatWindow.appendMessages(messages);
+        }
+    }
+    
+    @Override
+    public void receiveEvents(List<ChatEvent> events) throws RemoteException {
+        if (chatWindow != null) {
+            chatWindow.appendEvents(events);
+        }
+    }
+    
+    @Override
+    public void receiveEncodedEvents(List<byte[]> frames) throws RemoteException {
+        List<ChatEvent> events = new ArrayList<>(frames.size());
+        for (byte[] frame : frames) {
+            try {
+                events.add(ChatEvent.decode(frame));
+            } catch (IOException e) {
+                throw new RemoteException("Could not decode chat event", e);
+            }
+        }
+        receiveEvents(events);
+    }
+    
     @Override
     public void updateUserList(String[] users) throws RemoteException {
         if (chatWindow != null) {
@@ -31,6 +63,13 @@ public class ChatClientImpl extends UnicastRemoteObject implements ChatClient {
         }
     }
     
+    @Override
+    public void updatePresence(PresenceUpdate update) throws RemoteException {
+        if (chatWindow != null) {
+            chatWindow.updatePresence(update);
+        }
+    }
+    
     @Override
     public void notifyChatStarted(String time) throws RemoteException {
         if (chatWindow != null) {
@@ -1,17 +1,26 @@
 package client.services;
 
+import server.delivery.LegacyClients;
+import server.observer.ChatClient;
 import server.rmi.ChatServer;
 
 import java.net.MalformedURLException;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class ConnectionManager {
     private static final String SERVER_URL = "rmi://localhost:1099/ChatService";
     private static ConnectionManager instance;
-    private ChatServer chatServer;
-    private ChatClientImpl chatClient;
+    private volatile ChatServer chatServer;
+    private volatile ChatClientImpl chatClient;
+    
+    // Sequence number of the last event seen per chat, used to resume after a reconnect
+    private final Map<Integer, Long> lastSeenSequences = new ConcurrentHashMap<>();
     
     private ConnectionManager() {
         try {
@@ -67,26 +76,101 @@ public class ConnectionManager {
         }
     }
     
-    // Add method to reset the connection
-    public synchronized void resetConnection() {
-        if (chatClient != null) {
-            try {
-                // Try to properly unregister if possible
-                if (chatServer != null) {
-                    // We can't know the nickname here, so this may not work perfectly
-                    chatServer.removeClient(chatClient, "Unknown");
-                }
-            } catch (Exception e) {
-                System.err.println("Error during client cleanup: " + e.getMessage());
-            }
-            
-            // Create a new client
+    /**
+     * Remembers the newest event seen in a chat.
+     */
+    public void recordSeen(int chatId, long sequence) {
+        lastSeenSequences.merge(chatId, sequence, Math::max);
+    }
+    
+    /**
+     * @return the sequence number of the newest event seen in a chat, or -1
+     */
+    public long getLastSeen(int chatId) {
+        return lastSeenSequences.getOrDefault(chatId, -1L);
+    }
+    
+    public void forgetSeen(int chatId) {
+        lastSeenSequences.remove(chatId);
+    }
+    
+    /**
+     * A new id for an outgoing message; reuse it when retrying the same message.
+     */
+    public static long newMessageId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+    
+    /**
+     * Sends a message with its id, falling back to the plain call on servers that predate ids.
+     */
+    public void sendMessage(String message, String nickname, long messageId) throws RemoteException {
+        ChatServer server = chatServer;
+        if (server == null) {
+            throw new RemoteException("Not connected to server");
+        }
+        sendMessage(server, message, nickname, messageId);
+    }
+    
+    public static void sendMessage(ChatServer server, String message, String nickname, long messageId) throws RemoteException {
+        try {
             try {
-                chatClient = new ChatClientImpl();
+                server.sendMessage(message, nickname, messageId);
             } catch (RemoteException e) {
-                System.err.println("Failed to recreate chat client: " + e.getMessage());
-                chatClient = null;
+                if (!LegacyClients.isUnsupportedMethod(e)) {
+                    throw e;
+                }
+                server.sendMessage(message, nickname);
             }
+        } catch (RemoteException e) {
+            throw serverCause(e);
+        }
+    }
+    
+    /**
+     * Joins a chat, throwing the server's own exception if it refuses (see {@link #serverCause}).
+     */
+    public static void registerClientToChat(ChatServer server, ChatClient client, String nickname, int chatId)
+            throws RemoteException {
+        try {
+            server.registerClientToChat(client, nickname, chatId);
+        } catch (RemoteException e) {
+            throw serverCause(e);
+        }
+    }
+    
+    /**
+     * The exception a server method threw. RMI hands a RemoteException thrown by the server
+     * to the caller wrapped in a ServerException, so without unwrapping e.g. a rate limit
+     * looks just like a broken connection.
+     */
+    public static RemoteException serverCause(RemoteException e) {
+        if (e instanceof ServerException && e.getCause() instanceof RemoteException) {
+            return (RemoteException) e.getCause();
+        }
+        return e;
+    }
+    
+    /**
+     * Looks the server up again and creates a fresh callback client. The old client is
+     * left for the server to drop; the server replaces it when the chat is resumed.
+     * Last seen positions are kept so open chats can be resumed.
+     *
+     * @return true if the server could be reached
+     */
+    public synchronized boolean resetConnection() {
+        try {
+            chatServer = (ChatServer) Naming.lookup(SERVER_URL);
+            chatClient = new ChatClientImpl();
+            System.out.println("Reconnected to server");
+            return true;
+        } catch (NotBoundException | MalformedURLException | RemoteException e) {
+            System.err.println("Failed to reconnect to RMI server: " + e.getMessage());
+            return false;
         }
     }
 } 
\ No newline at end of file
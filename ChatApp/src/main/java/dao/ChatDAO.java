@@ -14,9 +14,35 @@ import java.util.ArrayList;
 import java.util.List;
 import java.io.File;
 import java.nio.file.Files;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntConsumer;
 
 public class ChatDAO {
     
+    private static final List<IntConsumer> changeListeners = new CopyOnWriteArrayList<>();
+    
+    /**
+     * Registers a callback invoked with the chat id whenever a chat is saved, ended or
+     * deleted through any ChatDAO in this JVM (used to keep server-side caches fresh)
+     */
+    public static void addChangeListener(IntConsumer listener) {
+        changeListeners.add(listener);
+    }
+    
+    public static void removeChangeListener(IntConsumer listener) {
+        changeListeners.remove(listener);
+    }
+    
+    private static void fireChatChanged(int chatId) {
+        for (IntConsumer listener : changeListeners) {
+            try {
+                listener.accept(chatId);
+            } catch (Exception e) {
+                System.err.println("Chat change listener failed: " + e.getMessage());
+            }
+        }
+    }
+    
     public void saveChat(Chat chat) {
         Transaction transaction = null;
         try (Session session = HibernateUtil.getSessionFactory().openSession()) {
@@ -35,6 +61,7 @@ public class ChatDAO {
             }
             throw e;
         }
+        fireChatChanged(chat.getId());
     }
     
     public Chat findById(int id) {
@@ -99,6 +126,7 @@ public class ChatDAO {
             }
             throw e;
         }
+        fireChatChanged(chatId);
     }
     
     /**
@@ -136,6 +164,7 @@ public class ChatDAO {
             e.printStackTrace();
             throw e;
         }
+        fireChatChanged(chatId);
         
         
         if (logFilePath != null && !logFilePath.isEmpty()) {
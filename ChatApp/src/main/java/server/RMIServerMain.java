@@ -4,7 +4,6 @@ import dao.ChatDAO;
 import dao.UserDAO;
 import dao.HibernateUtil;
 import server.observer.ChatSubscriptionManager;
-import server.rmi.ChatServer;
 import server.rmi.ChatServerImpl;
 
 import java.rmi.registry.LocateRegistry;
@@ -34,8 +33,9 @@ public class RMIServerMain {
             
             
             System.out.println("Initializing Chat Server...");
-            ChatServer server = new ChatServerImpl(chatDAO, userDAO, subscriptionManager);
+            ChatServerImpl server = new ChatServerImpl(chatDAO, userDAO, subscriptionManager);
             registry.rebind("ChatService", server);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown, "chat-server-shutdown"));
             
             
             createAdminIfNotExists(userDAO);
@@ -44,7 +44,7 @@ public class RMIServerMain {
             System.out.println("Waiting for client connections...");
             
             
-            createServerUI();
+            createServerUI(server);
             
         } catch (Exception e) {
             System.err.println("Server startup error: " + e.getMessage());
@@ -79,10 +79,10 @@ public class RMIServerMain {
         }
     }
     
-    private static void createServerUI() {
+    private static void createServerUI(ChatServerImpl server) {
         
         javax.swing.SwingUtilities.invokeLater(() -> {
-            ServerControlPanel controlPanel = new ServerControlPanel();
+            ServerControlPanel controlPanel = new ServerControlPanel(server);
             controlPanel.setVisible(true);
         });
     }
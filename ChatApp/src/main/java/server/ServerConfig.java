@@ -0,0 +1,165 @@
+package server;
+
+import server.delivery.OverflowPolicy;
+import server.log.DurabilityPolicy;
+import server.room.WaitStrategy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Server tuning knobs. Every value can be overridden through an environment
+ * variable of the same name, the same way the database settings are read.
+ */
+public final class ServerConfig {
+    
+    // Outbound delivery queues (one per connected client)
+    public static final int DELIVERY_QUEUE_CAPACITY = intEnv("CHAT_DELIVERY_QUEUE_CAPACITY", 512);
+    public static final OverflowPolicy DELIVERY_OVERFLOW_POLICY =
+            enumEnv("CHAT_DELIVERY_OVERFLOW_POLICY", OverflowPolicy.class, OverflowPolicy.DROP_OLDEST);
+    public static final long DELIVERY_BLOCK_TIMEOUT_MS = longEnv("CHAT_DELIVERY_BLOCK_TIMEOUT_MS", 2000);
+    public static final long DELIVERY_BATCH_WINDOW_MS = longEnv("CHAT_DELIVERY_BATCH_WINDOW_MS", 10);
+    public static final int DELIVERY_BATCH_MAX_MESSAGES = intEnv("CHAT_DELIVERY_BATCH_MAX_MESSAGES", 64);
+    
+    // Chats without activity for this long have their in-memory state released and log closed
+    public static final long ROOM_IDLE_MS = longEnv("CHAT_ROOM_IDLE_MS", 900000);
+    // Empty chats without activity for this long are ended; 0 never ends them
+    public static final long ROOM_END_AFTER_IDLE_MS = longEnv("CHAT_ROOM_END_AFTER_IDLE_MS", 0);
+    public static final long ROOM_IDLE_TICK_MS = longEnv("CHAT_ROOM_IDLE_TICK_MS", 5000);
+    
+    // Admission limits, checked when clients connect and join chats; 0 means unlimited
+    public static final int MAX_SESSIONS = intEnv("CHAT_MAX_SESSIONS", 10000);
+    public static final int MAX_ROOMS = intEnv("CHAT_MAX_ROOMS", 2000);
+    public static final int MAX_MEMBERS_PER_ROOM = intEnv("CHAT_MAX_MEMBERS_PER_ROOM", 5000);
+    // Recent events plus queued outbound deliveries, estimated
+    public static final long MAX_BUFFERED_BYTES = longEnv("CHAT_MAX_BUFFERED_BYTES", 256L * 1024 * 1024);
+    
+    // Room event loops: each chat is handled by one of these single-threaded loops
+    public static final int ROOM_LOOPS = intEnv("CHAT_ROOM_LOOPS", Runtime.getRuntime().availableProcessors());
+    public static final int ROOM_LOOP_QUEUE_CAPACITY = intEnv("CHAT_ROOM_LOOP_QUEUE_CAPACITY", 16384);
+    public static final WaitStrategy ROOM_LOOP_WAIT_STRATEGY =
+            enumEnv("CHAT_ROOM_LOOP_WAIT_STRATEGY", WaitStrategy.class, WaitStrategy.BLOCKING);
+    // Retry hint given to clients refused because their chat's loop is full
+    public static final long BUSY_RETRY_AFTER_MS = longEnv("CHAT_BUSY_RETRY_AFTER_MS", 500);
+    
+    // Rooms with at least this many members are fanned out to them in parallel chunks
+    public static final int FANOUT_PARALLEL_THRESHOLD = intEnv("CHAT_FANOUT_PARALLEL_THRESHOLD", 1000);
+    public static final int FANOUT_CHUNK_SIZE = intEnv("CHAT_FANOUT_CHUNK_SIZE", 256);
+    public static final int FANOUT_PARALLELISM =
+            intEnv("CHAT_FANOUT_PARALLELISM", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    
+    // Chat metadata cache used on the message path
+    public static final int CHAT_CACHE_MAX_ENTRIES = intEnv("CHAT_CACHE_MAX_ENTRIES", 1024);
+    public static final long CHAT_CACHE_TTL_MS = longEnv("CHAT_CACHE_TTL_MS", 60000);
+    
+    // Chat log writer
+    public static final DurabilityPolicy LOG_DURABILITY =
+            enumEnv("CHAT_LOG_DURABILITY", DurabilityPolicy.class, DurabilityPolicy.INTERVAL);
+    public static final long LOG_FLUSH_INTERVAL_MS = longEnv("CHAT_LOG_FLUSH_INTERVAL_MS", 1000);
+    public static final int LOG_DEDUP_WINDOW = intEnv("CHAT_LOG_DEDUP_WINDOW", 1);
+    public static final boolean LOG_BINARY = booleanEnv("CHAT_LOG_BINARY", false);
+    public static final long LOG_SEGMENT_BYTES = longEnv("CHAT_LOG_SEGMENT_BYTES", 16L * 1024 * 1024);
+    
+    // Chat history paging
+    public static final int HISTORY_MAX_PAGE_SIZE = intEnv("CHAT_HISTORY_MAX_PAGE_SIZE", 200);
+    
+    // Reconnect and resume
+    public static final int RESUME_MAX_GAP = intEnv("CHAT_RESUME_MAX_GAP", 500);
+    public static final long RESUME_LOG_WAIT_MS = longEnv("CHAT_RESUME_LOG_WAIT_MS", 2000);
+    
+    // Retried sends recognised by their client-generated message id
+    public static final int MESSAGE_ID_WINDOW = intEnv("CHAT_MESSAGE_ID_WINDOW", 256);
+    public static final long MESSAGE_ID_WINDOW_MS = longEnv("CHAT_MESSAGE_ID_WINDOW_MS", 300000);
+    
+    // Token bucket limits per user, as sustained calls per minute and a burst; 0 means unlimited
+    public static final int RATE_MESSAGES_PER_MIN = intEnv("CHAT_RATE_MESSAGES_PER_MIN", 300);
+    public static final int RATE_MESSAGE_BURST = intEnv("CHAT_RATE_MESSAGE_BURST", 20);
+    public static final int RATE_ADMIN_MESSAGES_PER_MIN = intEnv("CHAT_RATE_ADMIN_MESSAGES_PER_MIN", 1200);
+    public static final int RATE_ADMIN_MESSAGE_BURST = intEnv("CHAT_RATE_ADMIN_MESSAGE_BURST", 60);
+    public static final int RATE_JOINS_PER_MIN = intEnv("CHAT_RATE_JOINS_PER_MIN", 30);
+    public static final int RATE_JOIN_BURST = intEnv("CHAT_RATE_JOIN_BURST", 10);
+    public static final int RATE_ADMIN_JOINS_PER_MIN = intEnv("CHAT_RATE_ADMIN_JOINS_PER_MIN", 120);
+    public static final int RATE_ADMIN_JOIN_BURST = intEnv("CHAT_RATE_ADMIN_JOIN_BURST", 30);
+    
+    // Client leases, renewed by heartbeat; clients that stop renewing are removed
+    public static final long LEASE_MS = longEnv("CHAT_LEASE_MS", 30000);
+    public static final long LEASE_TICK_MS = longEnv("CHAT_LEASE_TICK_MS", 1000);
+    
+    // Presence updates: every this many updates members get a full snapshot instead of a delta
+    public static final int PRESENCE_SNAPSHOT_INTERVAL = intEnv("CHAT_PRESENCE_SNAPSHOT_INTERVAL", 100);
+    // Joins and leaves within this window go out as one presence update; 0 sends each at once
+    public static final long PRESENCE_COALESCE_MS = longEnv("CHAT_PRESENCE_COALESCE_MS", 200);
+    
+    // Recent events kept in memory per active room
+    public static final int RECENT_EVENTS_PER_ROOM = intEnv("CHAT_RECENT_EVENTS_PER_ROOM", 200);
+    public static final long RECENT_EVENTS_MAX_BYTES = longEnv("CHAT_RECENT_EVENTS_MAX_BYTES", 32L * 1024 * 1024);
+    public static final long RECENT_EVENTS_IDLE_MS = longEnv("CHAT_RECENT_EVENTS_IDLE_MS", 600000);
+    // Per-room overrides as chatId:capacity pairs, e.g. "12:1000,7:50"
+    private static final Map<Integer, Integer> RECENT_EVENTS_ROOM_CAPACITY =
+            capacityMapEnv("CHAT_RECENT_EVENTS_ROOM_CAPACITY");
+    
+    private ServerConfig() {
+    }
+    
+    /**
+     * Number of recent events kept in memory for a room.
+     */
+    public static int recentEventsCapacity(int chatId) {
+        return RECENT_EVENTS_ROOM_CAPACITY.getOrDefault(chatId, RECENT_EVENTS_PER_ROOM);
+    }
+    
+    static int intEnv(String name, int defaultValue) {
+        return (int) longEnv(name, defaultValue);
+    }
+    
+    static long longEnv(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + name + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+    
+    static boolean booleanEnv(String name, boolean defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+    
+    static <E extends Enum<E>> E enumEnv(String name, Class<E> type, E defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid value for " + name + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+    
+    static Map<Integer, Integer> capacityMapEnv(String name) {
+        Map<Integer, Integer> capacities = new HashMap<>();
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return capacities;
+        }
+        for (String pair : value.split(",")) {
+            String[] parts = pair.split(":");
+            try {
+                capacities.put(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                System.err.println("Invalid entry for " + name + ": " + pair + ", ignoring it");
+            }
+        }
+        return capacities;
+    }
+}
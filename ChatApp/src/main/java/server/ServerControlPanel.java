@@ -1,5 +1,7 @@
 package server;
 
+import server.rmi.ChatServerImpl;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
@@ -10,10 +12,13 @@ import java.util.Date;
 public class ServerControlPanel extends JFrame {
     private JTextArea logArea;
     private JButton shutdownButton;
+    private JButton metricsButton;
     private JLabel statusLabel;
     private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+    private final ChatServerImpl chatServer;
     
-    public ServerControlPanel() {
+    public ServerControlPanel(ChatServerImpl chatServer) {
+        this.chatServer = chatServer;
         setTitle("Chat Server Control Panel");
         setSize(600, 400);
         setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
@@ -44,6 +49,10 @@ public class ServerControlPanel extends JFrame {
         
         
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        metricsButton = new JButton("Show Metrics");
+        metricsButton.addActionListener(e -> logMessage(chatServer.getMetricsReport()));
+        buttonPanel.add(metricsButton);
+        
         shutdownButton = new JButton("Shutdown Server");
         shutdownButton.setBackground(Color.RED);
         shutdownButton.setForeground(Color.WHITE);
@@ -0,0 +1,103 @@
+package server.cache;
+
+import dao.ChatDAO;
+import model.Chat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, least-recently-used cache of Chat rows for the server's message path.
+ *
+ * Entries are dropped as soon as ChatDAO reports a change to the chat (rename, end,
+ * delete) made in this JVM. Entries also expire after a fixed time, which bounds
+ * staleness for edits made by an admin dashboard running in another process.
+ */
+public class ChatMetadataCache {
+    private final ChatDAO chatDAO;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Map<Integer, Entry> entries;
+
+    // Bumped on every invalidation so that a slow load cannot re-insert stale data
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ChatMetadataCache(ChatDAO chatDAO, int maxEntries, long ttlMillis) {
+        this.chatDAO = chatDAO;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() > ChatMetadataCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the chat, loading it from the database only on a miss.
+     */
+    public Chat get(int chatId) {
+        long loadGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(chatId);
+            if (entry != null) {
+                if (System.currentTimeMillis() - entry.loadedAt < ttlMillis) {
+                    hits.incrementAndGet();
+                    return entry.chat;
+                }
+                entries.remove(chatId);
+            }
+            loadGeneration = generation;
+        }
+
+        misses.incrementAndGet();
+        Chat chat = chatDAO.findById(chatId);
+        if (chat != null) {
+            synchronized (this) {
+                if (generation == loadGeneration) {
+                    entries.put(chatId, new Entry(chat));
+                }
+            }
+        }
+        return chat;
+    }
+
+    public synchronized void invalidate(int chatId) {
+        generation++;
+        entries.remove(chatId);
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public String describeMetrics() {
+        return "Chat cache: " + size() + "/" + maxEntries + " entries, hits=" + hits.get()
+                + ", misses=" + misses.get() + ", evictions=" + evictions.get();
+    }
+
+    private static final class Entry {
+        final Chat chat;
+        final long loadedAt;
+
+        Entry(Chat chat) {
+            this.chat = chat;
+            this.loadedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package server.delivery;
+
+import server.observer.ChatClient;
+import server.observer.ChatEvent;
+
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Bounded outbound queue for one connected client.
+ *
+ * Producers (the RMI threads handling other users' calls) only enqueue. The queue is
+ * drained by a single worker at a time, so a slow or dead client only ever holds up
+ * its own deliveries.
+ *
+ * Chat lines that pile up while the worker is busy, or that arrive within the batch
+ * window, are handed to the client in one receiveEncodedEvents call, made of frames
+ * encoded once per event and shared with every other member's outbox. Clients that
+ * predate that method are detected on the first batch and fall back to receiveEvents,
+ * then receiveMessages, and from there to one receiveMessage call per line.
+ */
+public class ClientOutbox {
+    private final ChatClient client;
+    private final String nickname;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMillis;
+    private final long batchWindowNanos;
+    private final int maxBatchMessages;
+    private final Executor executor;
+    private final Consumer<ClientOutbox> disconnectListener;
+    private final AtomicLong totalQueuedBytes;
+
+    private final ArrayDeque<Delivery> queue = new ArrayDeque<>();
+    private boolean draining;
+    private boolean closed;
+    private int highWaterMark;
+    private long queuedBytes;
+    private volatile boolean framesSupported = true;
+    private volatile boolean eventsSupported = true;
+    private volatile boolean batchingSupported = true;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    ClientOutbox(ChatClient client, String nickname, int capacity, OverflowPolicy overflowPolicy,
+                 long blockTimeoutMillis, long batchWindowMillis, int maxBatchMessages,
+                 Executor executor, Consumer<ClientOutbox> disconnectListener, AtomicLong totalQueuedBytes) {
+        this.client = client;
+        this.nickname = nickname;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.batchWindowNanos = TimeUnit.MILLISECONDS.toNanos(batchWindowMillis);
+        this.maxBatchMessages = maxBatchMessages;
+        this.executor = executor;
+        this.disconnectListener = disconnectListener;
+        this.totalQueuedBytes = totalQueuedBytes;
+    }
+
+    /**
+     * Queues a delivery for this client.
+     *
+     * @return false if the outbox is closed or the delivery was refused by the overflow policy
+     */
+    public boolean offer(Delivery delivery) {
+        boolean overflow = false;
+        boolean accepted = false;
+        boolean startDrain = false;
+
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+
+            if (queue.size() >= capacity) {
+                switch (overflowPolicy) {
+                    case DROP_OLDEST:
+                        released(queue.pollFirst());
+                        dropped.incrementAndGet();
+                        break;
+                    case BLOCK:
+                        overflow = !awaitSpace();
+                        break;
+                    case DISCONNECT:
+                    default:
+                        overflow = true;
+                        break;
+                }
+            }
+
+            if (!overflow && !closed) {
+                queue.addLast(delivery);
+                queuedBytes += delivery.estimatedBytes();
+                totalQueuedBytes.addAndGet(delivery.estimatedBytes());
+                accepted = true;
+                highWaterMark = Math.max(highWaterMark, queue.size());
+                if (!draining) {
+                    draining = true;
+                    startDrain = true;
+                } else {
+                    // The worker may be waiting out a batch window
+                    notifyAll();
+                }
+            }
+        }
+
+        if (overflow) {
+            dropped.incrementAndGet();
+            System.err.println("Outbound queue for " + nickname + " overflowed, disconnecting client");
+            disconnect();
+            return false;
+        }
+
+        if (startDrain) {
+            executor.execute(this::drain);
+        }
+        return accepted;
+    }
+
+    // Caller must hold the monitor
+    private Delivery released(Delivery delivery) {
+        if (delivery != null) {
+            queuedBytes -= delivery.estimatedBytes();
+            totalQueuedBytes.addAndGet(-delivery.estimatedBytes());
+        }
+        return delivery;
+    }
+
+    // Caller must hold the monitor
+    private boolean awaitSpace() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        try {
+            while (queue.size() >= capacity && !closed) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    private void drain() {
+        while (true) {
+            Delivery next;
+            List<MessageDelivery> batch = null;
+            synchronized (this) {
+                next = closed ? null : released(queue.pollFirst());
+                if (next == null) {
+                    draining = false;
+                    return;
+                }
+                if (next instanceof MessageDelivery) {
+                    batch = collectBatch((MessageDelivery) next);
+                }
+                // Wake up producers waiting under the BLOCK policy
+                notifyAll();
+            }
+
+            try {
+                if (batch != null) {
+                    deliverBatch(batch);
+                } else {
+                    next.deliver(client);
+                    delivered.incrementAndGet();
+                }
+            } catch (RemoteException e) {
+                System.err.println("Delivery to " + nickname + " failed: " + e.getMessage());
+                disconnect();
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("Unexpected error delivering to " + nickname + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Caller must hold the monitor
+    private List<MessageDelivery> collectBatch(MessageDelivery first) {
+        List<MessageDelivery> batch = new ArrayList<>();
+        batch.add(first);
+
+        int limit = framesSupported || eventsSupported || batchingSupported ? maxBatchMessages : 1;
+        long deadline = System.nanoTime() + batchWindowNanos;
+        while (batch.size() < limit && !closed) {
+            Delivery head = queue.peekFirst();
+            if (head instanceof MessageDelivery) {
+                released(queue.pollFirst());
+                batch.add((MessageDelivery) head);
+                continue;
+            }
+            if (head != null) {
+                // Something other than a chat line is next, keep it in order
+                break;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return batch;
+    }
+
+    private void deliverBatch(List<MessageDelivery> batch) throws RemoteException {
+        List<byte[]> frames = framesSupported ? framesOf(batch) : null;
+        if (frames != null) {
+            try {
+                client.receiveEncodedEvents(frames);
+                delivered.addAndGet(batch.size());
+                return;
+            } catch (RemoteException e) {
+                if (!LegacyClients.isUnsupportedMethod(e)) {
+                    throw e;
+                }
+                System.out.println(nickname + " does not support encoded events, falling back to chat events");
+                framesSupported = false;
+            }
+        }
+
+        List<ChatEvent> events = eventsSupported ? eventsOf(batch) : null;
+        if (events != null) {
+            try {
+                client.receiveEvents(events);
+                delivered.addAndGet(batch.size());
+                return;
+            } catch (RemoteException e) {
+                if (!LegacyClients.isUnsupportedMethod(e)) {
+                    throw e;
+                }
+                System.out.println(nickname + " does not support chat events, falling back to text messages");
+                eventsSupported = false;
+            }
+        }
+
+        List<String> messages = new ArrayList<>(batch.size());
+        for (MessageDelivery delivery : batch) {
+            messages.add(delivery.getMessage());
+        }
+        if (messages.size() == 1 || !batchingSupported) {
+            for (String message : messages) {
+                client.receiveMessage(message);
+            }
+        } else {
+            try {
+                client.receiveMessages(messages);
+            } catch (RemoteException e) {
+                if (!LegacyClients.isUnsupportedMethod(e)) {
+                    throw e;
+                }
+                System.out.println(nickname + " does not support batched messages, falling back to single delivery");
+                batchingSupported = false;
+                for (String message : messages) {
+                    client.receiveMessage(message);
+                }
+            }
+        }
+        delivered.addAndGet(batch.size());
+    }
+
+    // The encoded events of a batch, or null if any of its messages is a plain string
+    private static List<byte[]> framesOf(List<MessageDelivery> batch) {
+        List<byte[]> frames = new ArrayList<>(batch.size());
+        for (MessageDelivery delivery : batch) {
+            byte[] frame = delivery.getFrame();
+            if (frame == null) {
+                return null;
+            }
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    // The events of a batch, or null if any of its messages is a plain string
+    private static List<ChatEvent> eventsOf(List<MessageDelivery> batch) {
+        List<ChatEvent> events = new ArrayList<>(batch.size());
+        for (MessageDelivery delivery : batch) {
+            if (delivery.getEvent() == null) {
+                return null;
+            }
+            events.add(delivery.getEvent());
+        }
+        return events;
+    }
+
+    private void disconnect() {
+        boolean wasOpen;
+        synchronized (this) {
+            wasOpen = !closed;
+            close();
+        }
+        if (wasOpen && disconnectListener != null) {
+            disconnectListener.accept(this);
+        }
+    }
+
+    /**
+     * Stops accepting deliveries and discards whatever is still queued.
+     */
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+        totalQueuedBytes.addAndGet(-queuedBytes);
+        queuedBytes = 0;
+        notifyAll();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public ChatClient getClient() {
+        return client;
+    }
+
+    public String getNickname() {
+        return nickname;
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Estimated bytes held by the queued deliveries.
+     */
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    public synchronized int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,20 @@
+package server.delivery;
+
+import server.observer.ChatClient;
+
+import java.rmi.RemoteException;
+
+/**
+ * A single callback to be performed against a client, e.g. receiveMessage or updateUserList.
+ */
+@FunctionalInterface
+public interface Delivery {
+    void deliver(ChatClient client) throws RemoteException;
+
+    /**
+     * Rough heap footprint of this delivery while it waits in a queue.
+     */
+    default int estimatedBytes() {
+        return 64;
+    }
+}
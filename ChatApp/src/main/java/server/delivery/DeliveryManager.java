@@ -0,0 +1,137 @@
+package server.delivery;
+
+import server.observer.ChatClient;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Owns one {@link ClientOutbox} per connected client and the worker pool that drains them.
+ *
+ * Outboxes are drained on a cached pool rather than a dedicated thread each: a worker is
+ * only borrowed while a client has something queued, and a client stuck in a remote call
+ * only ties up the one worker draining it.
+ */
+public class DeliveryManager {
+    private final Map<ChatClient, ClientOutbox> outboxes = new ConcurrentHashMap<>();
+    private final ExecutorService workers;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMillis;
+    private final long batchWindowMillis;
+    private final int maxBatchMessages;
+    private volatile Consumer<ClientOutbox> disconnectListener;
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    public DeliveryManager(int queueCapacity, OverflowPolicy overflowPolicy, long blockTimeoutMillis,
+                           long batchWindowMillis, int maxBatchMessages) {
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.batchWindowMillis = batchWindowMillis;
+        this.maxBatchMessages = maxBatchMessages;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "chat-delivery-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Called (once) when an outbox gives up on its client, either because a remote call
+     * failed or because the queue overflowed under the DISCONNECT/BLOCK policies.
+     * The listener runs on a delivery worker, never on the thread that was queueing a
+     * delivery, which may be holding locks the listener needs.
+     */
+    public void setDisconnectListener(Consumer<ClientOutbox> disconnectListener) {
+        this.disconnectListener = disconnectListener;
+    }
+
+    public ClientOutbox register(ChatClient client, String nickname) {
+        return outboxes.computeIfAbsent(client, c -> new ClientOutbox(c, nickname, queueCapacity,
+                overflowPolicy, blockTimeoutMillis, batchWindowMillis, maxBatchMessages, workers, this::onDisconnect, queuedBytes));
+    }
+
+    public void unregister(ChatClient client) {
+        ClientOutbox outbox = outboxes.remove(client);
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    /**
+     * Queues a delivery for a registered client. A client without an outbox has left or
+     * been dropped, possibly while the caller was looking it up, so the delivery is
+     * dropped rather than creating an outbox nothing would ever remove.
+     *
+     * @return false if the delivery was refused or dropped
+     */
+    public boolean deliver(ChatClient client, String nickname, Delivery delivery) {
+        ClientOutbox outbox = outboxes.get(client);
+        return outbox != null && outbox.offer(delivery);
+    }
+
+    private void onDisconnect(ClientOutbox outbox) {
+        outboxes.remove(outbox.getClient(), outbox);
+        Consumer<ClientOutbox> listener = disconnectListener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            workers.execute(() -> listener.accept(outbox));
+        } catch (RejectedExecutionException e) {
+            // Shutting down, nothing left to clean up after
+        }
+    }
+
+    /**
+     * Estimated bytes waiting in all outboxes, kept up to date as deliveries are queued
+     * and taken. A delivery shared by many outboxes counts once per outbox.
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * Current queue depth per client, keyed by nickname.
+     */
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        for (ClientOutbox outbox : outboxes.values()) {
+            depths.put(outbox.getNickname(), outbox.getQueueDepth());
+        }
+        return depths;
+    }
+
+    public String describeMetrics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Delivery queues: ").append(outboxes.size())
+          .append(" (capacity ").append(queueCapacity).append(", policy ").append(overflowPolicy)
+          .append("), bytes=").append(queuedBytes.get());
+        for (ClientOutbox outbox : outboxes.values()) {
+            sb.append("\n  ").append(outbox.getNickname())
+              .append(": depth=").append(outbox.getQueueDepth())
+              .append(", max=").append(outbox.getHighWaterMark())
+              .append(", delivered=").append(outbox.getDeliveredCount())
+              .append(", dropped=").append(outbox.getDroppedCount());
+        }
+        return sb.toString();
+    }
+
+    public void shutdown() {
+        for (ClientOutbox outbox : outboxes.values()) {
+            outbox.close();
+        }
+        outboxes.clear();
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,101 @@
+package server.delivery;
+
+import server.metrics.LatencyRecorder;
+import server.observer.ChatClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Predicate;
+
+/**
+ * Hands a delivery to every member of a room. Small rooms are walked on the caller's
+ * thread; rooms of at least the threshold are split into chunks that run in parallel
+ * on a shared pool, with the caller taking the first chunk itself.
+ *
+ * The call returns only once every member was handed the delivery, so consecutive
+ * broadcasts of a room still reach each member's outbox in order. The pool is small
+ * and only used by large rooms, so however big one room gets it cannot take more than
+ * its share of cores away from the room loops.
+ */
+public class FanOut {
+    private final int threshold;
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+
+    private final LatencyRecorder sequentialTimes = new LatencyRecorder("Fan-out sequential");
+    private final LatencyRecorder parallelTimes = new LatencyRecorder("Fan-out parallel");
+
+    /**
+     * @param threshold   rooms with at least this many members are fanned out in parallel; 0 never does
+     * @param parallelism threads in the shared pool; 1 or less never fans out in parallel
+     */
+    public FanOut(int threshold, int chunkSize, int parallelism) {
+        this.threshold = threshold;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.pool = threshold > 0 && parallelism > 1 ? new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("chat-fanout-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false) : null;
+    }
+
+    /**
+     * Calls the delivery for every member and waits until all calls are done.
+     *
+     * @param delivery queues something for one member, returning false if it skipped the member
+     * @return the number of members the delivery went to
+     */
+    public int deliver(ChatClient[] members, Predicate<ChatClient> delivery) {
+        long start = System.nanoTime();
+        if (pool == null || members.length < threshold || members.length <= chunkSize) {
+            int sent = deliverRange(members, 0, members.length, delivery);
+            sequentialTimes.recordSince(start);
+            return sent;
+        }
+
+        int chunks = (members.length + chunkSize - 1) / chunkSize;
+        List<ForkJoinTask<Integer>> tasks = new ArrayList<>(chunks - 1);
+        for (int i = 1; i < chunks; i++) {
+            int from = i * chunkSize;
+            int to = Math.min(members.length, from + chunkSize);
+            tasks.add(pool.submit(() -> deliverRange(members, from, to, delivery)));
+        }
+        int sent = deliverRange(members, 0, chunkSize, delivery);
+        for (ForkJoinTask<Integer> task : tasks) {
+            sent += task.join();
+        }
+        parallelTimes.recordSince(start);
+        return sent;
+    }
+
+    private static int deliverRange(ChatClient[] members, int from, int to, Predicate<ChatClient> delivery) {
+        int sent = 0;
+        for (int i = from; i < to; i++) {
+            try {
+                if (delivery.test(members[i])) {
+                    sent++;
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Error queuing delivery: " + e.getMessage());
+            }
+        }
+        return sent;
+    }
+
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    public String describeMetrics() {
+        return (pool != null ? "Fan-out: parallel from " + threshold + " members, chunks of " + chunkSize
+                + ", " + pool.getParallelism() + " threads" : "Fan-out: sequential only")
+                + "\n  " + sequentialTimes.describe()
+                + "\n  " + parallelTimes.describe();
+    }
+}
@@ -0,0 +1,29 @@
+package server.delivery;
+
+import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
+
+/**
+ * Helpers for talking to clients built against an older ChatClient interface.
+ */
+public final class LegacyClients {
+
+    private LegacyClients() {
+    }
+
+    /**
+     * True if the remote call failed because the client's exported object does not
+     * implement the invoked method, i.e. the client predates it.
+     */
+    public static boolean isUnsupportedMethod(RemoteException e) {
+        Throwable cause = e;
+        while (cause != null) {
+            if (cause instanceof UnmarshalException && cause.getMessage() != null
+                    && cause.getMessage().contains("unrecognized method hash")) {
+                return true;
+            }
+            cause = cause.getCause();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,68 @@
+package server.delivery;
+
+import server.observer.ChatClient;
+import server.observer.ChatEvent;
+
+import java.rmi.RemoteException;
+
+/**
+ * A chat line for a client, either a plain string or a {@link ChatEvent} with its
+ * legacy string form. Consecutive message deliveries in an outbox are coalesced into
+ * a single receiveEvents or receiveMessages call.
+ *
+ * A broadcast queues the same delivery for every member, so the event's encoded frame
+ * is created once, by whichever outbox needs it first, and shared by the rest.
+ */
+public class MessageDelivery implements Delivery {
+    private final String message;
+    private final ChatEvent event;
+    private volatile byte[] frame;
+
+    public MessageDelivery(String message) {
+        this.message = message;
+        this.event = null;
+    }
+
+    public MessageDelivery(ChatEvent event) {
+        this.message = event.toLegacyMessage();
+        this.event = event;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the structured event, or null for a plain string message
+     */
+    public ChatEvent getEvent() {
+        return event;
+    }
+
+    /**
+     * @return the event's encoded frame, or null for a plain string message
+     */
+    public byte[] getFrame() {
+        if (event == null) {
+            return null;
+        }
+        // Two outboxes racing here both encode the same bytes, so no lock is needed
+        byte[] encoded = frame;
+        if (encoded == null) {
+            encoded = event.encode();
+            frame = encoded;
+        }
+        return encoded;
+    }
+
+    @Override
+    public int estimatedBytes() {
+        // The legacy string, plus the event's own copy of the text and its frame once encoded
+        return 64 + message.length() * (event != null ? 4 : 2);
+    }
+
+    @Override
+    public void deliver(ChatClient client) throws RemoteException {
+        client.receiveMessage(message);
+    }
+}
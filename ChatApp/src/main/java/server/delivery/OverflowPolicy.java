@@ -0,0 +1,13 @@
+package server.delivery;
+
+/**
+ * What a client outbox does when a new delivery arrives and the queue is full.
+ */
+public enum OverflowPolicy {
+    /** Discard the oldest queued delivery to make room for the new one */
+    DROP_OLDEST,
+    /** Give up on the client and disconnect it */
+    DISCONNECT,
+    /** Make the producer wait for space, disconnecting the client if none frees up in time */
+    BLOCK
+}
@@ -0,0 +1,155 @@
+package server.log;
+
+import server.observer.ChatEvent;
+import server.rmi.HistoryPage;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves pages of a text chat log. A cursor is the position of a line in the log,
+ * counting from 0, and a page holds the lines just before it, both as text and as
+ * {@link ChatEvent}s whose sequence is the line position.
+ *
+ * Logs are read through {@link MappedLogReader}s, kept open for the most recently
+ * used files so paging back through a chat does not rescan it.
+ */
+public class ChatHistoryReader {
+    private static final int MAX_OPEN_READERS = 64;
+
+    private final int maxPageSize;
+    private final Map<String, MappedLogReader> readers = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MappedLogReader> eldest) {
+            if (size() > MAX_OPEN_READERS) {
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    public ChatHistoryReader(int maxPageSize) {
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * Reads up to {@code limit} lines before {@code beforeCursor}, or the last lines of
+     * the log if the cursor is {@link HistoryPage#LATEST}.
+     */
+    public HistoryPage readPage(int chatId, String logFile, long beforeCursor, int limit) throws IOException {
+        if (logFile == null || logFile.isEmpty() || limit <= 0) {
+            return HistoryPage.empty();
+        }
+        try {
+            return readPage(chatId, readerFor(logFile), beforeCursor, limit);
+        } catch (ClosedChannelException e) {
+            // The reader was evicted by another request while in use, open it again
+            return readPage(chatId, readerFor(logFile), beforeCursor, limit);
+        }
+    }
+
+    private HistoryPage readPage(int chatId, MappedLogReader reader, long beforeCursor, int limit) throws IOException {
+        if (reader == null) {
+            return HistoryPage.empty();
+        }
+        int pageSize = Math.min(limit, maxPageSize);
+        long total = reader.lineCount();
+        long end = beforeCursor < 0 ? total : Math.min(beforeCursor, total);
+        long start = Math.max(0, end - pageSize);
+        List<String> lines = reader.readLines(start, (int) (end - start));
+        return new HistoryPage(lines, toEvents(chatId, lines, start), start, start > 0);
+    }
+
+    // Lines without a time of their own get the last time seen before them, or 0
+    private static List<ChatEvent> toEvents(int chatId, List<String> lines, long firstPosition) {
+        List<ChatEvent> events = new ArrayList<>(lines.size());
+        long timestamp = 0;
+        long position = firstPosition;
+        for (String line : lines) {
+            LogRecord record = LogRecord.parseTextLine(line, position++, timestamp);
+            timestamp = record.getTimestamp();
+            events.add(ChatEvent.fromRecord(chatId, record));
+        }
+        return events;
+    }
+
+    /**
+     * Reads up to {@code count} lines starting at line {@code fromLine} as events.
+     */
+    public List<ChatEvent> readEvents(int chatId, String logFile, long fromLine, int count) throws IOException {
+        List<String> lines;
+        try {
+            lines = readLines(readerFor(logFile), fromLine, count);
+        } catch (ClosedChannelException e) {
+            lines = readLines(readerFor(logFile), fromLine, count);
+        }
+        return toEvents(chatId, lines, fromLine);
+    }
+
+    private static List<String> readLines(MappedLogReader reader, long fromLine, int count) throws IOException {
+        return reader != null ? reader.readLines(fromLine, count) : new ArrayList<>();
+    }
+
+    /**
+     * Number of lines in a log file, 0 if it does not exist.
+     */
+    public long lineCount(String logFile) throws IOException {
+        try {
+            MappedLogReader reader = readerFor(logFile);
+            return reader != null ? reader.lineCount() : 0;
+        } catch (ClosedChannelException e) {
+            MappedLogReader reader = readerFor(logFile);
+            return reader != null ? reader.lineCount() : 0;
+        }
+    }
+
+    /**
+     * Closes all open readers.
+     */
+    public synchronized void close() {
+        for (MappedLogReader reader : readers.values()) {
+            closeQuietly(reader);
+        }
+        readers.clear();
+    }
+
+    /**
+     * Closes the reader of one log file, if open, dropping its mappings and line index.
+     * A page being read from it at the time is read again from a new reader.
+     */
+    public synchronized void release(String logFile) {
+        MappedLogReader reader = readers.remove(logFile);
+        if (reader != null) {
+            closeQuietly(reader);
+        }
+    }
+
+    private synchronized MappedLogReader readerFor(String logFile) throws IOException {
+        MappedLogReader reader = readers.get(logFile);
+        if (reader == null) {
+            Path path = Paths.get(logFile);
+            if (!Files.exists(path)) {
+                return null;
+            }
+            reader = new MappedLogReader(path);
+            readers.put(logFile, reader);
+        }
+        return reader;
+    }
+
+    private static void closeQuietly(MappedLogReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            System.err.println("Error closing chat log reader: " + e.getMessage());
+        }
+    }
+}
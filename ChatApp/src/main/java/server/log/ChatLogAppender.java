@@ -0,0 +1,473 @@
+package server.log;
+
+import server.metrics.LatencyRecorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Appends chat lines to their log files from a single dedicated writer thread.
+ *
+ * Producers only enqueue; they never touch the file system or wait for each other.
+ * The writer keeps one open FileChannel per active log file, drains everything that has
+ * queued up, and writes it with one call per file (group commit). When the data is
+ * forced to disk is governed by the {@link DurabilityPolicy}.
+ *
+ * Optionally every line is mirrored into a {@link SegmentedChatLog} kept in a
+ * "&lt;log file&gt;.seg" directory next to the text log, under its line position as
+ * sequence. Lines are mirrored once they are in the text log; whatever the mirror is
+ * missing (lines from before it was enabled, or a failed write) is copied over from the
+ * text log first.
+ */
+public class ChatLogAppender {
+    private static final int MAX_BATCH = 1024;
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final DurabilityPolicy durabilityPolicy;
+    private final long flushIntervalMillis;
+    private final long binarySegmentBytes;
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // Owned by the writer thread
+    private final Map<String, LogHandle> handles = new HashMap<>();
+    private long lastForceMillis = System.currentTimeMillis();
+    private volatile int openFiles;
+    private volatile Consumer<String> writeFailureListener;
+
+    private final LatencyRecorder appendLatency = new LatencyRecorder("Log append latency");
+    private final LatencyRecorder batchWriteLatency = new LatencyRecorder("Log batch write");
+
+    public ChatLogAppender(DurabilityPolicy durabilityPolicy, long flushIntervalMillis) {
+        this(durabilityPolicy, flushIntervalMillis, 0);
+    }
+
+    /**
+     * @param binarySegmentBytes segment size of the binary mirror, or 0 to write text logs only
+     */
+    public ChatLogAppender(DurabilityPolicy durabilityPolicy, long flushIntervalMillis, long binarySegmentBytes) {
+        this.durabilityPolicy = durabilityPolicy;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.binarySegmentBytes = binarySegmentBytes;
+        this.writer = new Thread(this::runWriter, "chat-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Called on the writer thread with the log file whenever lines for it could not be
+     * written and were dropped, so that line positions handed out for them can be taken
+     * back.
+     */
+    public void setWriteFailureListener(Consumer<String> writeFailureListener) {
+        this.writeFailureListener = writeFailureListener;
+    }
+
+    /**
+     * Queues a line to be appended to a log file. Never blocks.
+     */
+    public void append(String logFile, String line) {
+        if (!running) {
+            System.err.println("Log appender is shut down, dropping line for " + logFile + ": " + line);
+            return;
+        }
+        queue.offer(new Request(logFile, line));
+    }
+
+    /**
+     * Queues closing a log file once everything appended before it is written.
+     */
+    public void close(String logFile) {
+        queue.offer(new Request(logFile, null));
+    }
+
+    /**
+     * Waits until every line queued before this call has been written to its file (not
+     * necessarily forced to disk), so that readers of the files see it.
+     *
+     * @return false if the writer did not get there within the timeout
+     */
+    public boolean awaitWritten(long timeoutMillis) {
+        if (!running || Thread.currentThread() == writer) {
+            return false;
+        }
+        CountDownLatch written = new CountDownLatch(1);
+        queue.offer(new Request(written));
+        try {
+            return written.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Writes out everything queued so far, forces and closes all files and stops the writer.
+     */
+    public void shutdown() {
+        running = false;
+        // Wake the writer without interrupting it, an interrupt would close open channels
+        queue.offer(new Request(null, null));
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public LatencyRecorder getAppendLatency() {
+        return appendLatency;
+    }
+
+    public String describeMetrics() {
+        return "Log appender: policy=" + durabilityPolicy + ", queued=" + queue.size()
+                + ", open files=" + openFiles + ", binary=" + (binarySegmentBytes > 0)
+                + "\n  " + appendLatency.describe()
+                + "\n  " + batchWriteLatency.describe();
+    }
+
+    private void runWriter() {
+        List<Request> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Request first = queue.poll(pollTimeoutMillis(), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    writeBatch(batch);
+                    batch.clear();
+                }
+                if (durabilityPolicy == DurabilityPolicy.INTERVAL
+                        && System.currentTimeMillis() - lastForceMillis >= flushIntervalMillis) {
+                    forceDirty();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                System.err.println("Unexpected error in log writer: " + e.getMessage());
+                e.printStackTrace();
+                batch.clear();
+            }
+        }
+        closeAll();
+    }
+
+    private long pollTimeoutMillis() {
+        return durabilityPolicy == DurabilityPolicy.INTERVAL ? Math.max(1, flushIntervalMillis) : 1000;
+    }
+
+    private void writeBatch(List<Request> batch) {
+        long batchStart = System.nanoTime();
+        Set<LogHandle> touched = new LinkedHashSet<>();
+        List<CountDownLatch> barriers = null;
+
+        for (Request request : batch) {
+            if (request.logFile == null) {
+                // Shutdown wake-up or awaitWritten barrier
+                if (request.written != null) {
+                    if (barriers == null) {
+                        barriers = new ArrayList<>();
+                    }
+                    barriers.add(request.written);
+                }
+                continue;
+            }
+            if (request.line == null) {
+                // Close request: write what is pending for this file first
+                LogHandle handle = handles.get(request.logFile);
+                if (handle != null) {
+                    flush(handle);
+                    touched.remove(handle);
+                    closeHandle(handle, true);
+                }
+                continue;
+            }
+            LogHandle handle = handles.computeIfAbsent(request.logFile, f -> new LogHandle(f, binarySegmentBytes > 0));
+            handle.add(request.line, request.enqueuedMillis);
+            touched.add(handle);
+        }
+        openFiles = handles.size();
+
+        for (LogHandle handle : touched) {
+            flush(handle);
+            if (durabilityPolicy == DurabilityPolicy.PER_MESSAGE) {
+                force(handle);
+            }
+        }
+        if (durabilityPolicy == DurabilityPolicy.PER_MESSAGE) {
+            lastForceMillis = System.currentTimeMillis();
+        }
+        if (barriers != null) {
+            barriers.forEach(CountDownLatch::countDown);
+        }
+
+        long now = System.nanoTime();
+        for (Request request : batch) {
+            if (request.line != null) {
+                appendLatency.record(now - request.enqueuedNanos);
+            }
+        }
+        batchWriteLatency.recordSince(batchStart);
+    }
+
+    private void flush(LogHandle handle) {
+        if (handle.pending.isEmpty()) {
+            return;
+        }
+        List<LogRecord> records = handle.drainRecords();
+        ByteBuffer buffer = handle.drainPending();
+        for (int attempt = 1; attempt <= MAX_WRITE_ATTEMPTS; attempt++) {
+            try {
+                FileChannel channel = handle.channel();
+                long firstLine = records != null ? handle.nextLine() : 0;
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                handle.dirty = true;
+                if (records != null) {
+                    handle.lines = firstLine + records.size();
+                    appendBinary(handle, records, firstLine);
+                }
+                return;
+            } catch (IOException e) {
+                System.err.println("Error writing to chat log " + handle.logFile + " (attempt " + attempt + "): " + e.getMessage());
+                closeHandle(handle, false);
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ie) {
+                    // Keep retrying, shutdown is handled by the writer loop
+                }
+            }
+        }
+        System.err.println("Failed to write " + buffer.remaining() + " bytes to " + handle.logFile
+                + " after " + MAX_WRITE_ATTEMPTS + " attempts");
+        // Some of the lines may have made it, count them again next time
+        handle.lines = -1;
+        Consumer<String> listener = writeFailureListener;
+        if (listener != null) {
+            try {
+                listener.accept(handle.logFile);
+            } catch (RuntimeException e) {
+                System.err.println("Error handling failed write to " + handle.logFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Mirrors records just written to the text log, starting at line firstLine
+    private void appendBinary(LogHandle handle, List<LogRecord> records, long firstLine) {
+        try {
+            if (handle.binary == null) {
+                handle.binary = SegmentedChatLog.open(Paths.get(handle.logFile + ".seg"), binarySegmentBytes);
+            }
+            SegmentedChatLog binary = handle.binary;
+            if (binary.getNextSequence() < firstLine) {
+                long copied = TextLogConverter.appendMissing(Paths.get(handle.logFile), binary, firstLine);
+                System.out.println("Copied " + copied + " missing lines of " + handle.logFile + " to its binary log");
+            }
+            for (int i = 0; i < records.size(); i++) {
+                long sequence = firstLine + i;
+                // Lines the mirror already has, e.g. after the text log lost a write
+                if (sequence >= binary.getNextSequence()) {
+                    binary.append(records.get(i).withSequence(sequence));
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // Whatever is missing is copied from the text log on the next write
+            System.err.println("Error writing binary chat log for " + handle.logFile + ": " + e.getMessage());
+        }
+    }
+
+    // Counts the lines of a log file, 0 if it does not exist
+    private static long countLines(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long lines = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    if (buffer.get() == '\n') {
+                        lines++;
+                    }
+                }
+                buffer.clear();
+            }
+        }
+        return lines;
+    }
+
+    private void forceDirty() {
+        for (LogHandle handle : handles.values()) {
+            if (handle.dirty) {
+                force(handle);
+            }
+        }
+        lastForceMillis = System.currentTimeMillis();
+    }
+
+    private void force(LogHandle handle) {
+        if (handle.channel == null) {
+            return;
+        }
+        try {
+            handle.channel.force(false);
+            if (handle.binary != null) {
+                handle.binary.force();
+            }
+            handle.dirty = false;
+        } catch (IOException e) {
+            System.err.println("Error forcing chat log " + handle.logFile + ": " + e.getMessage());
+        }
+    }
+
+    private void closeHandle(LogHandle handle, boolean forget) {
+        if (handle.channel != null) {
+            if (handle.dirty) {
+                force(handle);
+            }
+            try {
+                handle.channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing chat log " + handle.logFile + ": " + e.getMessage());
+            }
+            handle.channel = null;
+        }
+        if (handle.binary != null) {
+            try {
+                handle.binary.close();
+            } catch (IOException e) {
+                System.err.println("Error closing binary chat log for " + handle.logFile + ": " + e.getMessage());
+            }
+            handle.binary = null;
+        }
+        if (forget) {
+            handles.remove(handle.logFile);
+        }
+        openFiles = handles.size();
+    }
+
+    private void closeAll() {
+        for (LogHandle handle : new ArrayList<>(handles.values())) {
+            flush(handle);
+            closeHandle(handle, true);
+        }
+    }
+
+    private static final class Request {
+        final String logFile;
+        final String line;
+        final long enqueuedNanos;
+        final long enqueuedMillis;
+        final CountDownLatch written;
+
+        Request(String logFile, String line) {
+            this.logFile = logFile;
+            this.line = line;
+            this.enqueuedNanos = System.nanoTime();
+            this.enqueuedMillis = System.currentTimeMillis();
+            this.written = null;
+        }
+
+        Request(CountDownLatch written) {
+            this.logFile = null;
+            this.line = null;
+            this.enqueuedNanos = System.nanoTime();
+            this.enqueuedMillis = System.currentTimeMillis();
+            this.written = written;
+        }
+    }
+
+    private static final class LogHandle {
+        final String logFile;
+        final List<byte[]> pending = new ArrayList<>();
+        final List<LogRecord> pendingRecords;
+        int pendingBytes;
+        FileChannel channel;
+        SegmentedChatLog binary;
+        boolean dirty;
+        // Lines in the text log, counted when first needed; -1 if not known
+        long lines = -1;
+
+        LogHandle(String logFile, boolean binaryEnabled) {
+            this.logFile = logFile;
+            this.pendingRecords = binaryEnabled ? new ArrayList<>() : null;
+        }
+
+        void add(String line, long timestamp) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            pending.add(bytes);
+            pendingBytes += bytes.length + LINE_SEPARATOR.length;
+            if (pendingRecords != null) {
+                pendingRecords.add(LogRecord.parseTextLine(line, 0, timestamp));
+            }
+        }
+
+        /**
+         * Takes the records to mirror, null if there is no binary mirror.
+         */
+        List<LogRecord> drainRecords() {
+            if (pendingRecords == null) {
+                return null;
+            }
+            List<LogRecord> records = new ArrayList<>(pendingRecords);
+            pendingRecords.clear();
+            return records;
+        }
+
+        long nextLine() throws IOException {
+            if (lines < 0) {
+                lines = countLines(Paths.get(logFile));
+            }
+            return lines;
+        }
+
+        ByteBuffer drainPending() {
+            ByteBuffer buffer = ByteBuffer.allocate(pendingBytes);
+            for (byte[] bytes : pending) {
+                buffer.put(bytes).put(LINE_SEPARATOR);
+            }
+            pending.clear();
+            pendingBytes = 0;
+            buffer.flip();
+            return buffer;
+        }
+
+        FileChannel channel() throws IOException {
+            if (channel == null) {
+                Path path = Paths.get(logFile);
+                Path parent = path.toAbsolutePath().getParent();
+                if (parent != null) {
+                    parent.toFile().mkdirs();
+                }
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            }
+            return channel;
+        }
+    }
+}
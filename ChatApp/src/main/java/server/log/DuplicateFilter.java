@@ -0,0 +1,155 @@
+package server.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers hashes of the last few lines written to each chat log so that duplicate
+ * lines can be rejected without reading the file on the write path.
+ *
+ * The state for a log is seeded once, from the tail of the file, the first time that
+ * log is touched; after that it is maintained purely in memory. The server time in a
+ * line's tag ("[MSG|millis]") is ignored when comparing lines.
+ */
+public class DuplicateFilter {
+    private static final int TAIL_BYTES = 64 * 1024;
+
+    private final int window;
+    private final Map<String, RecentLines> logs = new ConcurrentHashMap<>();
+
+    /**
+     * @param window how many recent lines per log a new line is compared against
+     */
+    public DuplicateFilter(int window) {
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * Records the line as written unless it duplicates one of the recent lines of the log.
+     *
+     * @return true if the line is a duplicate and should be skipped
+     */
+    public boolean isDuplicate(String logFile, String line) {
+        RecentLines recent = logs.computeIfAbsent(logFile, f -> new RecentLines(window));
+        synchronized (recent) {
+            if (!recent.loaded) {
+                seedFromFile(logFile, recent);
+                recent.loaded = true;
+            }
+            long hash = hash(withoutTime(line));
+            if (recent.contains(hash)) {
+                return true;
+            }
+            recent.add(hash);
+            return false;
+        }
+    }
+
+    /**
+     * Drops the in-memory state of a log, it is rebuilt from the file on next use.
+     */
+    public void forget(String logFile) {
+        logs.remove(logFile);
+    }
+
+    public int size() {
+        return logs.size();
+    }
+
+    private void seedFromFile(String logFile, RecentLines recent) {
+        Path path = Paths.get(logFile);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int length = (int) Math.min(size, TAIL_BYTES);
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            long position = size - length;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+
+            // Skip a possibly partial first line unless the whole file fits in the buffer
+            int start = 0;
+            if (position > 0) {
+                while (start < buffer.limit() && buffer.get(start) != '\n') {
+                    start++;
+                }
+                start++;
+            }
+            String tail = new String(buffer.array(), start, Math.max(0, buffer.limit() - start), StandardCharsets.UTF_8);
+            String[] lines = tail.split("\r?\n");
+            for (int i = Math.max(0, lines.length - window); i < lines.length; i++) {
+                if (!lines[i].isEmpty()) {
+                    recent.add(hash(withoutTime(lines[i])));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading tail of chat log " + logFile + ": " + e.getMessage());
+        }
+    }
+
+    // "[MSG|123]nick: hi" -> "[MSG]nick: hi"
+    private static String withoutTime(String line) {
+        if (!line.startsWith("[")) {
+            return line;
+        }
+        int close = line.indexOf(']');
+        int bar = line.indexOf('|');
+        if (bar < 0 || close < 0 || bar > close) {
+            return line;
+        }
+        return line.substring(0, bar) + line.substring(close);
+    }
+
+    // 64-bit FNV-1a over the UTF-16 code units
+    private static long hash(String line) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < line.length(); i++) {
+            h ^= line.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static final class RecentLines {
+        final long[] hashes;
+        int count;
+        int next;
+        boolean loaded;
+
+        RecentLines(int window) {
+            hashes = new long[window];
+        }
+
+        boolean contains(long hash) {
+            for (int i = 0; i < count; i++) {
+                if (hashes[i] == hash) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(long hash) {
+            hashes[next] = hash;
+            next = (next + 1) % hashes.length;
+            if (count < hashes.length) {
+                count++;
+            }
+        }
+    }
+}
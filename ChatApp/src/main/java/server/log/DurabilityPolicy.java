@@ -0,0 +1,13 @@
+package server.log;
+
+/**
+ * When the log appender forces written chat lines to stable storage.
+ */
+public enum DurabilityPolicy {
+    /** Force after every write batch, before the writer picks up more lines */
+    PER_MESSAGE,
+    /** Force dirty log files at most once per flush interval */
+    INTERVAL,
+    /** Only force when a log file is closed; otherwise rely on the OS to write back */
+    ON_CLOSE
+}
@@ -0,0 +1,143 @@
+package server.log;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+/**
+ * One chat log entry: what kind of line it is, who sent it, when the server saw it
+ * and its text.
+ */
+public class LogRecord {
+    private final RecordType type;
+    private final long sequence;
+    private final long timestamp;
+    private final String sender;
+    private final String body;
+
+    public LogRecord(RecordType type, long sequence, long timestamp, String sender, String body) {
+        this.type = type;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.sender = sender != null ? sender : "";
+        this.body = body != null ? body : "";
+    }
+
+    /**
+     * Parses a line of the text log format ("[MSG|millis]nick: text", "[JOIN]nick has joined : time", ...).
+     * For chat messages the sender is split from the body; for everything else the body
+     * is the whole text after the tag. The server time may follow the tag name after a '|';
+     * older logs write "[MSG]" without it.
+     *
+     * @param timestamp used when the line does not carry a time of its own
+     */
+    public static LogRecord parseTextLine(String line, long sequence, long timestamp) {
+        RecordType type = RecordType.TEXT;
+        String content = line;
+
+        if (line.startsWith("[")) {
+            int close = line.indexOf(']');
+            if (close > 1) {
+                String tag = line.substring(1, close);
+                int bar = tag.indexOf('|');
+                if (bar > 0) {
+                    timestamp = parseMillis(tag.substring(bar + 1), timestamp);
+                    tag = tag.substring(0, bar);
+                }
+                RecordType tagged = RecordType.fromTag(tag);
+                if (tagged != null) {
+                    type = tagged;
+                    content = line.substring(close + 1);
+                }
+            }
+        }
+
+        String sender = "";
+        String body = content;
+        if (type == RecordType.MSG) {
+            int colon = content.indexOf(": ");
+            if (colon > 0) {
+                sender = content.substring(0, colon);
+                body = content.substring(colon + 2);
+            } else {
+                type = RecordType.SYSTEM;
+            }
+        } else if (type == RecordType.JOIN || type == RecordType.LEAVE) {
+            String marker = type == RecordType.JOIN ? " has joined : " : " left : ";
+            int idx = content.indexOf(marker);
+            if (idx > 0) {
+                sender = content.substring(0, idx);
+                timestamp = parseTime(content.substring(idx + marker.length()), timestamp);
+            }
+        }
+        return new LogRecord(type, sequence, timestamp, sender, body);
+    }
+
+    /**
+     * The line as it appears in the text log format. Chat messages carry the
+     * server time in their tag, other lines are reproduced as parsed.
+     *
+     * A record is always exactly one line, since readers number records by line: any
+     * line break in the sender or body is written as a space.
+     */
+    public String toTextLine() {
+        switch (type) {
+            case TEXT:
+                return singleLine(body);
+            case MSG:
+                return "[MSG|" + timestamp + "]" + singleLine(sender) + ": " + singleLine(body);
+            default:
+                return "[" + type.name() + "]" + singleLine(body);
+        }
+    }
+
+    /**
+     * True if the text contains a character that ends a line of the text log.
+     */
+    public static boolean hasLineBreak(String text) {
+        return text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0;
+    }
+
+    private static String singleLine(String text) {
+        return hasLineBreak(text) ? text.replace('\r', ' ').replace('\n', ' ') : text;
+    }
+
+    private static long parseMillis(String text, long fallback) {
+        try {
+            return Long.parseLong(text.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static long parseTime(String text, long fallback) {
+        try {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(text.trim()).getTime();
+        } catch (ParseException e) {
+            return fallback;
+        }
+    }
+
+    public RecordType getType() {
+        return type;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public LogRecord withSequence(long sequence) {
+        return new LogRecord(type, sequence, timestamp, sender, body);
+    }
+}
@@ -0,0 +1,179 @@
+package server.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads windows of lines from a text chat log through memory-mapped chunks.
+ *
+ * The file is mapped in chunks of {@value #CHUNK_BYTES} bytes, so logs larger than 2 GB
+ * work too. Line boundaries are scanned once and the byte offset of every
+ * {@value #INDEX_STRIDE}th line is kept, so a window of lines is found with an index
+ * lookup and a short scan and only that window is decoded into Strings. When the file
+ * grows (the server keeps appending), the next call maps and scans only the new bytes.
+ *
+ * Mapped memory is released by the garbage collector, not by {@link #close()}.
+ */
+public class MappedLogReader implements Closeable {
+    private static final long CHUNK_BYTES = 256L * 1024 * 1024;
+    private static final int INDEX_STRIDE = 128;
+
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+    private long mappedSize;
+
+    // lineOffsets[k] is the byte offset of line k * INDEX_STRIDE
+    private long[] lineOffsets = new long[64];
+    private int indexCount;
+    private long completeLines;
+    private long scannedTo;
+    private boolean hasTail;
+
+    public MappedLogReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    /**
+     * Number of lines in the file, including a last line without a line terminator.
+     */
+    public synchronized long lineCount() throws IOException {
+        refresh();
+        return completeLines + (hasTail ? 1 : 0);
+    }
+
+    /**
+     * Decodes up to {@code count} lines starting at line {@code fromLine} (0-based).
+     */
+    public synchronized List<String> readLines(long fromLine, int count) throws IOException {
+        refresh();
+        long total = completeLines + (hasTail ? 1 : 0);
+        List<String> lines = new ArrayList<>();
+        if (fromLine < 0 || fromLine >= total || count <= 0) {
+            return lines;
+        }
+
+        int entry = (int) (fromLine / INDEX_STRIDE);
+        long position = lineOffsets[entry];
+        for (long line = (long) entry * INDEX_STRIDE; line < fromLine; line++) {
+            position = nextLineStart(position);
+        }
+
+        long last = Math.min(total, fromLine + count);
+        for (long line = fromLine; line < last; line++) {
+            long end = findNewline(position);
+            long next = end < mappedSize ? end + 1 : end;
+            if (end > position && byteAt(end - 1) == '\r') {
+                end--;
+            }
+            lines.add(decode(position, end));
+            position = next;
+        }
+        return lines;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        chunks.clear();
+        channel.close();
+    }
+
+    // Maps bytes appended since the last call and indexes the lines they complete
+    private void refresh() throws IOException {
+        long size = channel.size();
+        if (size < mappedSize) {
+            // The file was truncated or replaced, start over
+            chunks.clear();
+            mappedSize = 0;
+            indexCount = 0;
+            completeLines = 0;
+            scannedTo = 0;
+            hasTail = false;
+        }
+        if (size == mappedSize) {
+            return;
+        }
+
+        // Remap the last partial chunk and map any new ones
+        int firstChunk = chunks.isEmpty() ? 0 : chunks.size() - 1;
+        while (chunks.size() > firstChunk) {
+            chunks.remove(chunks.size() - 1);
+        }
+        for (long start = firstChunk * CHUNK_BYTES; start < size; start += CHUNK_BYTES) {
+            chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_BYTES, size - start)));
+        }
+        mappedSize = size;
+
+        if (indexCount == 0) {
+            addIndexEntry(0);
+        }
+        long position = scannedTo;
+        while (position < mappedSize) {
+            long newline = findNewline(position);
+            if (newline >= mappedSize) {
+                break;
+            }
+            position = newline + 1;
+            completeLines++;
+            if (completeLines % INDEX_STRIDE == 0) {
+                addIndexEntry(position);
+            }
+        }
+        scannedTo = position;
+        hasTail = scannedTo < mappedSize;
+    }
+
+    private void addIndexEntry(long offset) {
+        if (indexCount == lineOffsets.length) {
+            lineOffsets = Arrays.copyOf(lineOffsets, indexCount * 2);
+        }
+        lineOffsets[indexCount++] = offset;
+    }
+
+    private long nextLineStart(long position) {
+        long newline = findNewline(position);
+        return newline < mappedSize ? newline + 1 : newline;
+    }
+
+    // Position of the next '\n' at or after position, or mappedSize if there is none
+    private long findNewline(long position) {
+        while (position < mappedSize) {
+            int chunkIndex = (int) (position / CHUNK_BYTES);
+            MappedByteBuffer chunk = chunks.get(chunkIndex);
+            int limit = chunk.limit();
+            for (int i = (int) (position % CHUNK_BYTES); i < limit; i++) {
+                if (chunk.get(i) == '\n') {
+                    return chunkIndex * CHUNK_BYTES + i;
+                }
+            }
+            position = (chunkIndex + 1) * CHUNK_BYTES;
+        }
+        return mappedSize;
+    }
+
+    private byte byteAt(long position) {
+        return chunks.get((int) (position / CHUNK_BYTES)).get((int) (position % CHUNK_BYTES));
+    }
+
+    private String decode(long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        int copied = 0;
+        long position = start;
+        while (copied < bytes.length) {
+            MappedByteBuffer chunk = chunks.get((int) (position / CHUNK_BYTES));
+            int offset = (int) (position % CHUNK_BYTES);
+            int length = Math.min(bytes.length - copied, chunk.limit() - offset);
+            chunk.get(offset, bytes, copied, length);
+            copied += length;
+            position += length;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,44 @@
+package server.log;
+
+/**
+ * Kinds of chat log records, matching the [TAG] prefixes of the text log format.
+ */
+public enum RecordType {
+    HEADER(1),
+    ADMIN(2),
+    SEPARATOR(3),
+    JOIN(4),
+    LEAVE(5),
+    MSG(6),
+    SYSTEM(7),
+    /** A line without a tag, as written by older versions of the server */
+    TEXT(0);
+
+    private final byte code;
+
+    RecordType(int code) {
+        this.code = (byte) code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public static RecordType fromCode(byte code) {
+        for (RecordType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown record type " + code);
+    }
+
+    public static RecordType fromTag(String tag) {
+        for (RecordType type : values()) {
+            if (type != TEXT && type.name().equals(tag)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
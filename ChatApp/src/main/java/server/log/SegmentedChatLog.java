@@ -0,0 +1,489 @@
+package server.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary chat log made of size-capped segments, each with a sparse index.
+ *
+ * A record is stored as
+ * <pre>
+ *   int   payload length
+ *   byte  record type
+ *   long  sequence
+ *   long  server timestamp (millis)
+ *   short sender length, sender bytes (UTF-8)
+ *   body bytes (UTF-8)
+ *   int   CRC32 of the payload
+ * </pre>
+ * Sequence numbers are those of the text log, i.e. line positions counting from 0, and
+ * are kept as given; records must be appended without gaps or repeats so that a
+ * sequence means the same line in both logs.
+ *
+ * Segments are named after the sequence of their first record. Next to every segment an
+ * index file holds an entry (sequence, timestamp, position) for the first record and then
+ * roughly every {@value #INDEX_INTERVAL_BYTES} bytes, so a record is found by binary search
+ * over segments and index entries followed by a short forward scan.
+ *
+ * On open, the tail of the last segment is validated and anything after the first torn
+ * or corrupt record is cut off.
+ */
+public class SegmentedChatLog implements Closeable {
+    public static final long DEFAULT_SEGMENT_BYTES = 16L * 1024 * 1024;
+
+    private static final int INDEX_INTERVAL_BYTES = 4096;
+    private static final int INDEX_ENTRY_BYTES = 8 + 8 + 4;
+    private static final int PAYLOAD_HEADER_BYTES = 1 + 8 + 8 + 2;
+    private static final int MAX_PAYLOAD_BYTES = 1024 * 1024;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final List<Segment> segments = new ArrayList<>();
+    private long nextSequence;
+
+    private SegmentedChatLog(Path directory, long segmentBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Opens (creating if needed) the segmented log stored in a directory.
+     */
+    public static SegmentedChatLog open(Path directory, long segmentBytes) throws IOException {
+        Files.createDirectories(directory);
+        SegmentedChatLog log = new SegmentedChatLog(directory, segmentBytes);
+        log.load();
+        return log;
+    }
+
+    /**
+     * Appends a record under its own sequence number, which must be the next one.
+     *
+     * @return the sequence number of the appended record
+     * @throws IllegalArgumentException if the record would leave a gap or repeat a sequence
+     */
+    public synchronized long append(LogRecord record) throws IOException {
+        long sequence = record.getSequence();
+        if (sequence != nextSequence) {
+            throw new IllegalArgumentException("Expected sequence " + nextSequence + " in " + directory
+                    + " but got " + sequence);
+        }
+        ByteBuffer encoded = encode(record);
+
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || (segment.size > 0 && segment.size + encoded.remaining() > segmentBytes)) {
+            if (segment != null) {
+                segment.force();
+            }
+            segment = new Segment(sequence);
+            segments.add(segment);
+        }
+
+        if (segment.indexCount == 0 || segment.bytesSinceIndex >= INDEX_INTERVAL_BYTES) {
+            segment.addIndexEntry(sequence, record.getTimestamp(), segment.size, true);
+        }
+
+        int length = encoded.remaining();
+        FileChannel channel = segment.log();
+        long position = segment.size;
+        while (encoded.hasRemaining()) {
+            position += channel.write(encoded, position);
+        }
+        segment.size = position;
+        segment.bytesSinceIndex += length;
+        nextSequence = sequence + 1;
+        return sequence;
+    }
+
+    public synchronized void force() throws IOException {
+        if (!segments.isEmpty()) {
+            segments.get(segments.size() - 1).force();
+        }
+    }
+
+    /**
+     * Reads up to {@code limit} records starting at a sequence number.
+     */
+    public synchronized List<LogRecord> read(long fromSequence, int limit) throws IOException {
+        List<LogRecord> records = new ArrayList<>();
+        if (segments.isEmpty() || limit <= 0) {
+            return records;
+        }
+        long from = Math.max(fromSequence, segments.get(0).baseSequence);
+
+        for (int i = segmentFor(from); i < segments.size() && records.size() < limit; i++) {
+            Segment segment = segments.get(i);
+            long position = segment.floorPositionForSequence(from);
+            while (position < segment.size && records.size() < limit) {
+                Decoded decoded = readAt(segment.log(), position, segment.size);
+                if (decoded == null) {
+                    break;
+                }
+                if (decoded.record.getSequence() >= from) {
+                    records.add(decoded.record);
+                }
+                position = decoded.nextPosition;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Reads the last {@code count} records, oldest first.
+     */
+    public synchronized List<LogRecord> readLast(int count) throws IOException {
+        return read(Math.max(getFirstSequence(), nextSequence - count), count);
+    }
+
+    /**
+     * First sequence number whose record was written at or after the given time, or the
+     * next sequence number if there is none.
+     */
+    public synchronized long sequenceAt(long timestamp) throws IOException {
+        if (segments.isEmpty()) {
+            return nextSequence;
+        }
+        // Last segment that starts at or before the timestamp
+        int lo = 0;
+        int hi = segments.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            Segment segment = segments.get(mid);
+            if (segment.indexCount > 0 && segment.indexTimes[0] <= timestamp) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        for (int i = lo; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            long position = segment.floorPositionForTime(timestamp);
+            while (position < segment.size) {
+                Decoded decoded = readAt(segment.log(), position, segment.size);
+                if (decoded == null) {
+                    break;
+                }
+                if (decoded.record.getTimestamp() >= timestamp) {
+                    return decoded.record.getSequence();
+                }
+                position = decoded.nextPosition;
+            }
+        }
+        return nextSequence;
+    }
+
+    public synchronized long getFirstSequence() {
+        return segments.isEmpty() ? nextSequence : segments.get(0).baseSequence;
+    }
+
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    private int segmentFor(long sequence) {
+        int lo = 0;
+        int hi = segments.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (segments.get(mid).baseSequence <= sequence) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private void load() throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    bases.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    System.err.println("Ignoring unexpected file in chat log directory: " + file);
+                }
+            }
+        }
+        bases.sort(null);
+
+        for (long base : bases) {
+            Segment segment = new Segment(base);
+            segment.size = Files.size(segment.logPath);
+            segment.loadIndex();
+            segments.add(segment);
+        }
+
+        if (!segments.isEmpty()) {
+            recoverTail(segments.get(segments.size() - 1));
+        }
+    }
+
+    // Validates the last segment from its last index entry on and truncates any torn write
+    private void recoverTail(Segment segment) throws IOException {
+        long position = 0;
+        long lastSequence = segment.baseSequence - 1;
+        if (segment.indexCount > 0) {
+            position = segment.indexPositions[segment.indexCount - 1];
+        }
+
+        FileChannel channel = segment.log();
+        long lastIndexed = position;
+        while (position < segment.size) {
+            Decoded decoded = readAt(channel, position, segment.size);
+            if (decoded == null) {
+                System.err.println("Truncating damaged chat log segment " + segment.logPath + " at " + position);
+                channel.truncate(position);
+                break;
+            }
+            lastSequence = decoded.record.getSequence();
+            position = decoded.nextPosition;
+        }
+        segment.size = position;
+        segment.bytesSinceIndex = position - lastIndexed;
+        nextSequence = lastSequence + 1;
+    }
+
+    private static ByteBuffer encode(LogRecord record) {
+        byte[] sender = record.getSender().getBytes(StandardCharsets.UTF_8);
+        if (sender.length > 0xFFFF) {
+            sender = Arrays.copyOf(sender, 0xFFFF);
+        }
+        byte[] body = record.getBody().getBytes(StandardCharsets.UTF_8);
+        int payload = PAYLOAD_HEADER_BYTES + sender.length + body.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + payload + 4);
+        buffer.putInt(payload)
+              .put(record.getType().getCode())
+              .putLong(record.getSequence())
+              .putLong(record.getTimestamp())
+              .putShort((short) sender.length)
+              .put(sender)
+              .put(body);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, payload);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    // Returns null for a truncated or corrupt record
+    private static Decoded readAt(FileChannel channel, long position, long limit) throws IOException {
+        if (position + 4 > limit) {
+            return null;
+        }
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        readFully(channel, lengthBuffer, position);
+        int payload = lengthBuffer.getInt(0);
+        if (payload < PAYLOAD_HEADER_BYTES || payload > MAX_PAYLOAD_BYTES || position + 4 + payload + 4 > limit) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(payload + 4);
+        readFully(channel, buffer, position + 4);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, payload);
+        if ((int) crc.getValue() != buffer.getInt(payload)) {
+            return null;
+        }
+
+        buffer.position(0);
+        byte type = buffer.get();
+        long sequence = buffer.getLong();
+        long timestamp = buffer.getLong();
+        int senderLength = buffer.getShort() & 0xFFFF;
+        if (PAYLOAD_HEADER_BYTES + senderLength > payload) {
+            return null;
+        }
+        String sender = new String(buffer.array(), buffer.position(), senderLength, StandardCharsets.UTF_8);
+        int bodyOffset = buffer.position() + senderLength;
+        String body = new String(buffer.array(), bodyOffset, payload - bodyOffset, StandardCharsets.UTF_8);
+
+        RecordType recordType;
+        try {
+            recordType = RecordType.fromCode(type);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return new Decoded(new LogRecord(recordType, sequence, timestamp, sender, body), position + 4 + payload + 4);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of chat log segment");
+            }
+        }
+    }
+
+    private static final class Decoded {
+        final LogRecord record;
+        final long nextPosition;
+
+        Decoded(LogRecord record, long nextPosition) {
+            this.record = record;
+            this.nextPosition = nextPosition;
+        }
+    }
+
+    private final class Segment {
+        final long baseSequence;
+        final Path logPath;
+        final Path indexPath;
+        FileChannel log;
+        FileChannel index;
+        long size;
+        long bytesSinceIndex;
+
+        long[] indexSequences = new long[16];
+        long[] indexTimes = new long[16];
+        long[] indexPositions = new long[16];
+        int indexCount;
+
+        Segment(long baseSequence) {
+            this.baseSequence = baseSequence;
+            String name = String.format("%020d", baseSequence);
+            this.logPath = directory.resolve(name + SEGMENT_SUFFIX);
+            this.indexPath = directory.resolve(name + INDEX_SUFFIX);
+        }
+
+        FileChannel log() throws IOException {
+            if (log == null) {
+                log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+            return log;
+        }
+
+        FileChannel index() throws IOException {
+            if (index == null) {
+                index = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+            return index;
+        }
+
+        void addIndexEntry(long sequence, long timestamp, long position, boolean persist) throws IOException {
+            // Keep the time column monotonic so it can be binary searched
+            if (indexCount > 0 && timestamp < indexTimes[indexCount - 1]) {
+                timestamp = indexTimes[indexCount - 1];
+            }
+            if (indexCount == indexSequences.length) {
+                indexSequences = Arrays.copyOf(indexSequences, indexCount * 2);
+                indexTimes = Arrays.copyOf(indexTimes, indexCount * 2);
+                indexPositions = Arrays.copyOf(indexPositions, indexCount * 2);
+            }
+            indexSequences[indexCount] = sequence;
+            indexTimes[indexCount] = timestamp;
+            indexPositions[indexCount] = position;
+
+            if (persist) {
+                ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+                entry.putLong(sequence).putLong(timestamp).putInt((int) position).flip();
+                long offset = (long) indexCount * INDEX_ENTRY_BYTES;
+                while (entry.hasRemaining()) {
+                    offset += index().write(entry, offset);
+                }
+            }
+            indexCount++;
+            bytesSinceIndex = 0;
+        }
+
+        void loadIndex() throws IOException {
+            if (!Files.exists(indexPath)) {
+                return;
+            }
+            FileChannel channel = index();
+            int entries = (int) (channel.size() / INDEX_ENTRY_BYTES);
+            ByteBuffer buffer = ByteBuffer.allocate(entries * INDEX_ENTRY_BYTES);
+            readFully(channel, buffer, 0);
+            buffer.flip();
+            for (int i = 0; i < entries; i++) {
+                long sequence = buffer.getLong();
+                long timestamp = buffer.getLong();
+                long position = buffer.getInt() & 0xFFFFFFFFL;
+                if (position >= size) {
+                    break;
+                }
+                addIndexEntry(sequence, timestamp, position, false);
+            }
+            // Drop entries that point past the end of a truncated segment
+            channel.truncate((long) indexCount * INDEX_ENTRY_BYTES);
+        }
+
+        long floorPositionForSequence(long sequence) {
+            int i = floor(indexSequences, sequence);
+            return i < 0 ? 0 : indexPositions[i];
+        }
+
+        long floorPositionForTime(long timestamp) {
+            int i = floor(indexTimes, timestamp);
+            return i < 0 ? 0 : indexPositions[i];
+        }
+
+        // Index of the last entry <= key, or -1
+        private int floor(long[] column, long key) {
+            int lo = 0;
+            int hi = indexCount - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (column[mid] <= key) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        void force() throws IOException {
+            if (log != null) {
+                log.force(false);
+            }
+            if (index != null) {
+                index.force(false);
+            }
+        }
+
+        void close() throws IOException {
+            force();
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+            if (index != null) {
+                index.close();
+                index = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package server.log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Imports text chat logs into the binary {@link SegmentedChatLog} format.
+ *
+ * Every line becomes the record whose sequence is its position in the text log. A binary
+ * log that already exists, e.g. one the server started mirroring into after the text log
+ * had lines, only gets the lines it is missing.
+ *
+ * Lines without a time of their own get the most recent time seen before them (or the
+ * file's modification time at the start).
+ *
+ * Run it while the server is stopped, or on logs the server is not writing to.
+ * Usage: {@code TextLogConverter [log file or directory ...]}, defaulting to "logs".
+ */
+public class TextLogConverter {
+
+    private TextLogConverter() {
+    }
+
+    /**
+     * Converts one text log into "&lt;log file&gt;.seg", or brings an existing binary log up
+     * to date with it.
+     *
+     * @return the number of records written, 0 if the binary log was up to date
+     */
+    public static long convert(Path textLog, long segmentBytes) throws IOException {
+        try (SegmentedChatLog log = SegmentedChatLog.open(Paths.get(textLog.toString() + ".seg"), segmentBytes)) {
+            long count = appendMissing(textLog, log, -1);
+            log.force();
+            return count;
+        }
+    }
+
+    /**
+     * Appends the lines of a text log from the binary log's next sequence on.
+     *
+     * @param toLine position of the first line not to append, or -1 for all lines
+     * @return the number of records written
+     */
+    static long appendMissing(Path textLog, SegmentedChatLog log, long toLine) throws IOException {
+        long from = log.getNextSequence();
+        long timestamp = Files.getLastModifiedTime(textLog).toMillis();
+        long position = 0;
+        long count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(textLog, StandardCharsets.UTF_8)) {
+            String line;
+            while ((toLine < 0 || position < toLine) && (line = reader.readLine()) != null) {
+                // Earlier lines are parsed too, for the time they carry
+                LogRecord record = LogRecord.parseTextLine(line, position, timestamp);
+                timestamp = record.getTimestamp();
+                if (position >= from) {
+                    log.append(record);
+                    count++;
+                }
+                position++;
+            }
+        }
+        return count;
+    }
+
+    public static void main(String[] args) {
+        String[] targets = args.length > 0 ? args : new String[]{"logs"};
+        for (String target : targets) {
+            File file = new File(target);
+            File[] logs = file.isDirectory()
+                    ? file.listFiles((dir, name) -> name.endsWith(".txt"))
+                    : new File[]{file};
+            if (logs == null) {
+                System.err.println("Cannot read " + target);
+                continue;
+            }
+            for (File log : logs) {
+                try {
+                    long count = convert(log.toPath(), SegmentedChatLog.DEFAULT_SEGMENT_BYTES);
+                    if (count == 0) {
+                        System.out.println("Skipping " + log + ", already converted");
+                    } else {
+                        System.out.println("Converted " + log + ": " + count + " records");
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error converting " + log + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package server.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency statistics: count, mean, max and approximate percentiles taken
+ * from a histogram with power-of-two nanosecond buckets.
+ */
+public class LatencyRecorder {
+    private static final int BUCKETS = 64;
+
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    public LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        count.increment();
+        totalNanos.add(nanos);
+        // Bucket i holds values in [2^i, 2^(i+1))
+        histogram.incrementAndGet(nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos));
+        long max;
+        while (nanos > (max = maxNanos.get())) {
+            if (maxNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : toMillis(totalNanos.sum() / n);
+    }
+
+    public double getMaxMillis() {
+        return toMillis(maxNanos.get());
+    }
+
+    /**
+     * Upper bound of the histogram bucket containing the given percentile (0-100).
+     */
+    public double getPercentileMillis(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram.get(i);
+            if (seen >= target) {
+                long upperBound = i >= 62 ? Long.MAX_VALUE : (2L << i) - 1;
+                return toMillis(Math.min(upperBound, maxNanos.get()));
+            }
+        }
+        return getMaxMillis();
+    }
+
+    public String describe() {
+        return String.format("%s: n=%d, mean=%.2fms, p50<=%.2fms, p99<=%.2fms, max=%.2fms",
+                name, getCount(), getMeanMillis(), getPercentileMillis(50), getPercentileMillis(99), getMaxMillis());
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
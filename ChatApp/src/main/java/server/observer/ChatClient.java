@@ -2,10 +2,16 @@ package server.observer;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 public interface ChatClient extends Remote {
     void receiveMessage(String message) throws RemoteException;
+    void receiveMessages(List<String> messages) throws RemoteException;
+    void receiveEvents(List<ChatEvent> events) throws RemoteException;
+    /** Events in the form of {@link ChatEvent#encode()} frames */
+    void receiveEncodedEvents(List<byte[]> frames) throws RemoteException;
     void updateUserList(String[] users) throws RemoteException;
+    void updatePresence(PresenceUpdate update) throws RemoteException;
     void notifyChatStarted(String time) throws RemoteException;
     void notifyChatEnded(String time) throws RemoteException;
 }
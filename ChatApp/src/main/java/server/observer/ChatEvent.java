@@ -0,0 +1,183 @@
+package server.observer;
+
+import server.log.LogRecord;
+import server.log.RecordType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.UncheckedIOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A chat event as sent to clients: what happened, in which chat, its position in the
+ * chat, who caused it, when the server saw it and its text.
+ *
+ * Uses its own compact encoding instead of default serialization; the first byte is a
+ * format version so fields can be added later. The same encoding is available as a
+ * standalone frame through {@link #encode()}, so a broadcast can encode an event once
+ * and hand the bytes to every recipient.
+ */
+public class ChatEvent implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    private static final byte FORMAT_VERSION = 1;
+
+    private RecordType type;
+    private int chatId;
+    private long sequence;
+    private int senderId;
+    private long timestamp;
+    private String sender;
+    private String body;
+
+    /** For deserialization only */
+    public ChatEvent() {
+    }
+
+    public ChatEvent(RecordType type, int chatId, long sequence, int senderId, long timestamp,
+                     String sender, String body) {
+        this.type = type;
+        this.chatId = chatId;
+        this.sequence = sequence;
+        this.senderId = senderId;
+        this.timestamp = timestamp;
+        this.sender = sender != null ? sender : "";
+        this.body = body != null ? body : "";
+    }
+
+    public static ChatEvent fromRecord(int chatId, LogRecord record) {
+        return new ChatEvent(record.getType(), chatId, record.getSequence(), 0, record.getTimestamp(),
+                record.getSender(), record.getBody());
+    }
+
+    public ChatEvent withSequence(long sequence) {
+        return new ChatEvent(type, chatId, sequence, senderId, timestamp, sender, body);
+    }
+
+    public LogRecord toRecord() {
+        return new LogRecord(type, sequence, timestamp, sender, body);
+    }
+
+    /**
+     * The event as the untagged string older clients receive through receiveMessage.
+     */
+    public String toLegacyMessage() {
+        return type == RecordType.MSG ? sender + ": " + body : body;
+    }
+
+    /**
+     * The event in its compact encoding, for {@link #decode(byte[])} on the other side.
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + sender.length() + body.length());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static ChatEvent decode(byte[] frame) throws IOException {
+        ChatEvent event = new ChatEvent();
+        event.readFrom(new DataInputStream(new ByteArrayInputStream(frame)));
+        return event;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        readFrom(in);
+    }
+
+    private void writeTo(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeByte(type.getCode());
+        out.writeInt(chatId);
+        out.writeLong(sequence);
+        out.writeInt(senderId);
+        out.writeLong(timestamp);
+        writeString(out, sender);
+        writeString(out, body);
+    }
+
+    private void readFrom(DataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new InvalidObjectException("Unsupported chat event format " + version);
+        }
+        try {
+            type = RecordType.fromCode(in.readByte());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+        chatId = in.readInt();
+        sequence = in.readLong();
+        senderId = in.readInt();
+        timestamp = in.readLong();
+        sender = readString(in);
+        body = readString(in);
+    }
+
+    // Length-prefixed UTF-8, unlike writeUTF not limited to 64 KB
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new InvalidObjectException("Negative string length");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public RecordType getType() {
+        return type;
+    }
+
+    public int getChatId() {
+        return chatId;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getSenderId() {
+        return senderId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    @Override
+    public String toString() {
+        return "ChatEvent[" + type + " #" + sequence + " in chat " + chatId + "] " + toLegacyMessage();
+    }
+}
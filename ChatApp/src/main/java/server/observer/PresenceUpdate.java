@@ -0,0 +1,157 @@
+package server.observer;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A change to the members of a chat: the users who joined and left, with their user ids
+ * (0 if unknown). Every change bumps the room's presence version, so a client that sees
+ * a version it did not expect knows it missed one and can ask for a snapshot.
+ *
+ * A snapshot lists every member as joined and replaces whatever the client had.
+ */
+public class PresenceUpdate implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    private static final byte FORMAT_VERSION = 1;
+
+    private int chatId;
+    private long version;
+    private boolean snapshot;
+    private String[] joined;
+    private int[] joinedUserIds;
+    private String[] left;
+    private int[] leftUserIds;
+
+    /** For deserialization only */
+    public PresenceUpdate() {
+    }
+
+    private PresenceUpdate(int chatId, long version, boolean snapshot,
+                           Map<String, Integer> joined, Map<String, Integer> left) {
+        this.chatId = chatId;
+        this.version = version;
+        this.snapshot = snapshot;
+        this.joined = joined.keySet().toArray(new String[0]);
+        this.joinedUserIds = userIds(joined);
+        this.left = left.keySet().toArray(new String[0]);
+        this.leftUserIds = userIds(left);
+    }
+
+    public static PresenceUpdate delta(int chatId, long version, Map<String, Integer> joined, Map<String, Integer> left) {
+        return new PresenceUpdate(chatId, version, false, joined, left);
+    }
+
+    public static PresenceUpdate snapshot(int chatId, long version, Map<String, Integer> members) {
+        return new PresenceUpdate(chatId, version, true, members, Map.of());
+    }
+
+    private static int[] userIds(Map<String, Integer> users) {
+        int[] ids = new int[users.size()];
+        int i = 0;
+        for (Integer id : users.values()) {
+            ids[i++] = id != null ? id : 0;
+        }
+        return ids;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeInt(chatId);
+        out.writeLong(version);
+        out.writeBoolean(snapshot);
+        writeUsers(out, joined, joinedUserIds);
+        writeUsers(out, left, leftUserIds);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        byte format = in.readByte();
+        if (format != FORMAT_VERSION) {
+            throw new InvalidObjectException("Unsupported presence update format " + format);
+        }
+        chatId = in.readInt();
+        version = in.readLong();
+        snapshot = in.readBoolean();
+        int count = readCount(in);
+        joined = new String[count];
+        joinedUserIds = new int[count];
+        readUsers(in, joined, joinedUserIds);
+        count = readCount(in);
+        left = new String[count];
+        leftUserIds = new int[count];
+        readUsers(in, left, leftUserIds);
+    }
+
+    private static void writeUsers(ObjectOutput out, String[] nicknames, int[] userIds) throws IOException {
+        out.writeInt(nicknames.length);
+        for (int i = 0; i < nicknames.length; i++) {
+            out.writeInt(userIds[i]);
+            out.writeUTF(nicknames[i]);
+        }
+    }
+
+    private static int readCount(ObjectInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new InvalidObjectException("Negative user count");
+        }
+        return count;
+    }
+
+    private static void readUsers(ObjectInput in, String[] nicknames, int[] userIds) throws IOException {
+        for (int i = 0; i < nicknames.length; i++) {
+            userIds[i] = in.readInt();
+            nicknames[i] = in.readUTF();
+        }
+    }
+
+    public int getChatId() {
+        return chatId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Nicknames that joined, or all members for a snapshot.
+     */
+    public String[] getJoined() {
+        return joined;
+    }
+
+    public int[] getJoinedUserIds() {
+        return joinedUserIds;
+    }
+
+    public String[] getLeft() {
+        return left;
+    }
+
+    public int[] getLeftUserIds() {
+        return leftUserIds;
+    }
+
+    @Override
+    public String toString() {
+        List<String> parts = new ArrayList<>();
+        for (String nickname : joined) {
+            parts.add("+" + nickname);
+        }
+        for (String nickname : left) {
+            parts.add("-" + nickname);
+        }
+        return "PresenceUpdate[chat " + chatId + " v" + version + (snapshot ? " snapshot" : "") + "] " + parts;
+    }
+}
@@ -0,0 +1,26 @@
+package server.rmi;
+
+import java.rmi.RemoteException;
+
+/**
+ * Thrown when a chat's event loop has too much work queued to take the call. The call
+ * had no effect and the connection is fine; the client may repeat it after
+ * {@link #getRetryAfterMillis()}.
+ */
+public class ChatBusyException extends RemoteException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    public ChatBusyException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * How long to wait before trying again.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -1,6 +1,7 @@
 package server.rmi;
 
 import server.observer.ChatClient;
+import server.observer.PresenceUpdate;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
@@ -9,5 +10,42 @@ public interface ChatServer extends Remote {
     void registerClient(ChatClient client, String nickname) throws RemoteException;
     void registerClientToChat(ChatClient client, String nickname, int chatId) throws RemoteException;
     void sendMessage(String message, String nickname) throws RemoteException;
+    
+    /**
+     * Sends a message carrying an id the client generated for it. Sending again with the
+     * same id, e.g. after a timeout, does not post the message twice.
+     */
+    void sendMessage(String message, String nickname, long messageId) throws RemoteException;
     void removeClient(ChatClient client, String nickname) throws RemoteException;
+    
+    /**
+     * Returns up to {@code limit} lines of a chat's history before a cursor, oldest first.
+     * Pass {@link HistoryPage#LATEST} for the most recent page.
+     */
+    HistoryPage getHistory(int chatId, long beforeCursor, int limit) throws RemoteException;
+    
+    /**
+     * Rejoins a chat after a reconnect without announcing a new join. Events after
+     * {@code lastSeenSequence} are replayed to the client if the gap is small enough.
+     */
+    ResumeResult resumeChat(ChatClient client, String nickname, int chatId, long lastSeenSequence) throws RemoteException;
+    
+    /**
+     * @return true if the client is still a member of the chat on the server
+     */
+    boolean isInChat(ChatClient client, int chatId) throws RemoteException;
+    
+    /**
+     * Keeps the client's session alive. Clients that renew must keep doing so, or they
+     * are removed from their chat once the lease runs out.
+     *
+     * @return the lease length in milliseconds, or 0 if the server no longer knows the client
+     */
+    long renewLease(ChatClient client) throws RemoteException;
+    
+    /**
+     * The current members of a chat, as a snapshot. Clients ask for one when they notice
+     * they missed a presence update.
+     */
+    PresenceUpdate getPresence(int chatId) throws RemoteException;
 }
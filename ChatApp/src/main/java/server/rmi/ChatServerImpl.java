@@ -3,21 +3,54 @@ package server.rmi;
 import dao.ChatDAO;
 import dao.UserDAO;
 import model.Chat;
+import model.User;
+import server.ServerConfig;
+import server.cache.ChatMetadataCache;
+import server.delivery.ClientOutbox;
+import server.delivery.DeliveryManager;
+import server.delivery.FanOut;
+import server.delivery.LegacyClients;
+import server.delivery.MessageDelivery;
+import server.log.ChatHistoryReader;
+import server.log.ChatLogAppender;
+import server.log.DuplicateFilter;
+import server.log.LogRecord;
+import server.log.RecordType;
 import server.observer.ChatClient;
+import server.observer.ChatEvent;
 import server.observer.ChatSubscriptionManager;
+import server.observer.PresenceUpdate;
+import server.room.PresenceCoalescer;
+import server.room.PresenceTracker;
+import server.room.RoomEventLoops;
+import server.room.RoomIdleTracker;
+import server.room.RecentEventCache;
+import server.room.RecentEvents;
+import server.room.RoomPresence;
+import server.room.RoomRegistry;
+import server.room.RoomSequencer;
+import server.session.AdmissionController;
+import server.session.ClientSession;
+import server.session.LeaseReaper;
+import server.session.MessageIdFilter;
+import server.session.RateLimiter;
+import server.session.Role;
+import server.session.SessionIndex;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 
 public class ChatServerImpl extends UnicastRemoteObject implements ChatServer {
-    private final Map<ChatClient, String> connectedClients;
+    private final SessionIndex sessions;
     private boolean chatActive;
     private final SimpleDateFormat sdf;
     private String chatStartTime;
@@ -26,20 +59,54 @@ public class ChatServerImpl extends UnicastRemoteObject implements ChatServer {
     private final ChatDAO chatDAO;
     private final UserDAO userDAO;
     private final ChatSubscriptionManager subscriptionManager;
-    
-    
-    private Map<Integer, List<ChatClient>> chatRooms = new HashMap<>();
-    private Map<ChatClient, Integer> clientChatMap = new HashMap<>();
+    private final DeliveryManager deliveryManager;
+    private final RoomRegistry roomRegistry = new RoomRegistry();
+    private final ChatMetadataCache chatCache;
+    private final ChatLogAppender logAppender =
+            new ChatLogAppender(ServerConfig.LOG_DURABILITY, ServerConfig.LOG_FLUSH_INTERVAL_MS,
+                    ServerConfig.LOG_BINARY ? ServerConfig.LOG_SEGMENT_BYTES : 0);
+    private final DuplicateFilter duplicateFilter = new DuplicateFilter(ServerConfig.LOG_DEDUP_WINDOW);
+    private final LeaseReaper leaseReaper = new LeaseReaper(ServerConfig.LEASE_TICK_MS,
+            (int) (ServerConfig.LEASE_MS / Math.max(1, ServerConfig.LEASE_TICK_MS)) + 2,
+            this::isCurrentSession, this::expireSession);
+    private final PresenceTracker presence = new PresenceTracker(ServerConfig.PRESENCE_SNAPSHOT_INTERVAL);
+    private final PresenceCoalescer presenceCoalescer =
+            new PresenceCoalescer(ServerConfig.PRESENCE_COALESCE_MS, this::sendPresence);
+    private final MessageIdFilter messageIds =
+            new MessageIdFilter(ServerConfig.MESSAGE_ID_WINDOW, ServerConfig.MESSAGE_ID_WINDOW_MS);
+    private final ChatHistoryReader historyReader = new ChatHistoryReader(ServerConfig.HISTORY_MAX_PAGE_SIZE);
+    private final RoomSequencer roomSequencer = new RoomSequencer(this::countLogLines);
+    private final RoomEventLoops roomLoops =
+            new RoomEventLoops(ServerConfig.ROOM_LOOPS, ServerConfig.ROOM_LOOP_QUEUE_CAPACITY,
+                    ServerConfig.ROOM_LOOP_WAIT_STRATEGY);
+    private final FanOut fanOut = new FanOut(ServerConfig.FANOUT_PARALLEL_THRESHOLD,
+            ServerConfig.FANOUT_CHUNK_SIZE, ServerConfig.FANOUT_PARALLELISM);
+    private final RateLimiter messageLimiter = new RateLimiter("messages")
+            .limit(Role.USER, ServerConfig.RATE_MESSAGES_PER_MIN, ServerConfig.RATE_MESSAGE_BURST)
+            .limit(Role.ADMIN, ServerConfig.RATE_ADMIN_MESSAGES_PER_MIN, ServerConfig.RATE_ADMIN_MESSAGE_BURST);
+    private final RateLimiter joinLimiter = new RateLimiter("joins")
+            .limit(Role.USER, ServerConfig.RATE_JOINS_PER_MIN, ServerConfig.RATE_JOIN_BURST)
+            .limit(Role.ADMIN, ServerConfig.RATE_ADMIN_JOINS_PER_MIN, ServerConfig.RATE_ADMIN_JOIN_BURST);
+    private final RecentEventCache recentEvents = new RecentEventCache(ServerConfig::recentEventsCapacity,
+            ServerConfig.RECENT_EVENTS_MAX_BYTES, ServerConfig.RECENT_EVENTS_IDLE_MS);
+    private final RoomIdleTracker idleRooms = new RoomIdleTracker(ServerConfig.ROOM_IDLE_TICK_MS,
+            ServerConfig.ROOM_IDLE_MS, ServerConfig.ROOM_END_AFTER_IDLE_MS, this::onRoomIdle, this::onRoomAbandoned);
+    private final AdmissionController admission = new AdmissionController(ServerConfig.MAX_SESSIONS,
+            ServerConfig.MAX_ROOMS, ServerConfig.MAX_MEMBERS_PER_ROOM, ServerConfig.MAX_BUFFERED_BYTES,
+            this::sessionCount, this::roomCount, this::bufferedBytes);
     
     public ChatServerImpl(ChatDAO chatDAO) throws RemoteException {
         super();
         this.chatDAO = chatDAO;
         this.userDAO = null; 
         this.subscriptionManager = null; 
-        connectedClients = new ConcurrentHashMap<>();
+        sessions = new SessionIndex();
         sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         chatLog = new ArrayList<>();
         chatActive = false;
+        deliveryManager = createDeliveryManager();
+        chatCache = createChatCache(chatDAO);
+        logAppender.setWriteFailureListener(this::onLogWriteFailed);
     }
     
     public ChatServerImpl(ChatDAO chatDAO, UserDAO userDAO, ChatSubscriptionManager subscriptionManager) throws RemoteException {
@@ -47,20 +114,40 @@ public class ChatServerImpl extends UnicastRemoteObject implements ChatServer {
         this.chatDAO = chatDAO;
         this.userDAO = userDAO;
         this.subscriptionManager = subscriptionManager;
-        connectedClients = new ConcurrentHashMap<>();
+        sessions = new SessionIndex();
         sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         chatLog = new ArrayList<>();
         chatActive = false;
+        deliveryManager = createDeliveryManager();
+        chatCache = createChatCache(chatDAO);
+        logAppender.setWriteFailureListener(this::onLogWriteFailed);
+    }
+    
+    private DeliveryManager createDeliveryManager() {
+        DeliveryManager manager = new DeliveryManager(ServerConfig.DELIVERY_QUEUE_CAPACITY,
+                ServerConfig.DELIVERY_OVERFLOW_POLICY, ServerConfig.DELIVERY_BLOCK_TIMEOUT_MS,
+                ServerConfig.DELIVERY_BATCH_WINDOW_MS, ServerConfig.DELIVERY_BATCH_MAX_MESSAGES);
+        manager.setDisconnectListener(this::handleDeliveryFailure);
+        return manager;
+    }
+    
+    private ChatMetadataCache createChatCache(ChatDAO chatDAO) {
+        ChatMetadataCache cache = new ChatMetadataCache(chatDAO,
+                ServerConfig.CHAT_CACHE_MAX_ENTRIES, ServerConfig.CHAT_CACHE_TTL_MS);
+        ChatDAO.addChangeListener(cache::invalidate);
+        return cache;
     }
     
     @Override
     public void registerClient(ChatClient client, String nickname) throws RemoteException {
-        // Check if the client is already registered to avoid duplicates
-        if (connectedClients.containsKey(client) || isNicknameAlreadyConnected(nickname)) {
+        admit(admission.checkSession(), nickname);
+        
+        // Refuse the client if it or its nickname is already registered
+        if (sessions.register(client, nickname) == null) {
             throw new RemoteException("User with nickname " + nickname + " is already connected");
         }
         
-        connectedClients.put(client, nickname);
+        deliveryManager.register(client, nickname);
         
         if (!chatActive) {
             startChat();
@@ -74,39 +161,61 @@ public class ChatServerImpl extends UnicastRemoteObject implements ChatServer {
     
     @Override
     public void sendMessage(String message, String nickname) throws RemoteException {
-        // Find the client and their chat room
-        Integer chatId = null;
-        ChatClient senderClient = null;
-        
-        for (Map.Entry<ChatClient, String> entry : connectedClients.entrySet()) {
-            if (entry.getValue().equals(nickname)) {
-                senderClient = entry.getKey();
-                chatId = clientChatMap.get(senderClient);
-                break;
-            }
+        sendMessage(message, nickname, MessageIdFilter.NO_ID);
+    }
+    
+    @Override
+    public void sendMessage(String message, String nickname, long messageId) throws RemoteException {
+        // Every message is one line of the chat log, and its position there is its sequence
+        if (message != null && LogRecord.hasLineBreak(message)) {
+            throw new RemoteException("Messages cannot contain line breaks");
         }
         
-        if (chatId != null) {
-            String formattedMessage = nickname + ": " + message;
+        // Find the client and their chat room
+        ClientSession sender = sessions.findByNickname(nickname);
+        int chatId = sender != null ? roomRegistry.roomOf(sender.getClient()) : RoomRegistry.NO_ROOM;
+        
+        if (chatId != RoomRegistry.NO_ROOM) {
+            // A retry of a message that already went through; checked before the rate limit,
+            // so a retry after a timeout does not spend a token on a no-op
+            if (!messageIds.firstSeen(nickname, messageId)) {
+                System.out.println("Duplicate message id " + messageId + " from " + nickname + ", skipping");
+                return;
+            }
+            
+            ChatEvent event = new ChatEvent(RecordType.MSG, chatId, 0, sender.getUserId(),
+                    System.currentTimeMillis(), nickname, message);
             
+            // From here on the id is recorded, so every way out that does not queue the
+            // message forgets it again; otherwise the client's retry would be taken as a duplicate
+            boolean queued = false;
             try {
-                // Log the message to the chat's log file
-                Chat chat = chatDAO.findById(chatId);
-                if (chat != null) {
-                    logMessageToChat(formattedMessage, chat);
-                } else {
+                checkRate(messageLimiter, sender, "sending messages");
+                
+                // Log the message and send it to all connected clients in this chat; the room's
+                // event loop does that, this thread only queues it
+                Chat chat = chatCache.get(chatId);
+                if (chat == null) {
                     System.err.println("Error: Could not find chat with ID " + chatId);
-                    return;
+                    throw new RemoteException("Chat with ID " + chatId + " does not exist");
                 }
-                
-                // Send the message to all connected clients in this chat
-                broadcastMessageToChat(formattedMessage, chatId);
+                roomLoops.execute(chatId, () -> publishToChat(event, chat));
+                queued = true;
                 
                 // Handle "Bye" command (handled in client)
+            } catch (RejectedExecutionException e) {
+                System.err.println("Event loop of chat " + chatId + " is full, rejecting message from " + nickname);
+                throw busy();
+            } catch (RemoteException e) {
+                throw e;
             } catch (Exception e) {
                 System.err.println("Error in sendMessage: " + e.getMessage());
                 e.printStackTrace();
                 throw new RemoteException("Error processing message: " + e.getMessage());
+            } finally {
+                if (!queued) {
+                    messageIds.release(nickname, messageId);
+                }
             }
         } else {
             System.err.println("Error: Could not determine chat ID for user " + nickname);
@@ -116,88 +225,227 @@ public class ChatServerImpl extends UnicastRemoteObject implements ChatServer {
     
     @Override
     public void removeClient(ChatClient client, String nickname) throws RemoteException {
-        Integer chatId = clientChatMap.get(client);
-        if (chatId != null) {
-            
-            String leaveMessage = nickname + " left : " + getCurrentTime();
-            broadcastMessageToChat(leaveMessage, chatId);
-            
-            
-            removeClientFromChat(client, chatId);
-            
-            
-            updateChatUserList(chatId);
+        disconnect(client, nickname);
+        messageIds.forget(nickname);
+    }
+    
+    // Announces the client's leave in its chat, if any, and drops its session
+    private void disconnect(ChatClient client, String nickname) throws RemoteException {
+        int chatId = roomRegistry.roomOf(client);
+        if (chatId != RoomRegistry.NO_ROOM) {
             
+            ClientSession session = sessions.get(client);
+            ChatEvent leaveEvent = leaveEvent(chatId, session != null ? session.getUserId() : 0, nickname);
             
-            Chat chat = chatDAO.findById(chatId);
-            if (chat != null) {
-                logMessageToChat(leaveMessage, chat);
-            }
+            // Log and broadcast before removing, so the leaving client sees it too
+            Chat chat = chatCache.get(chatId);
+            onRoomLoop(chatId, () -> {
+                if (chat != null) {
+                    publishToChat(leaveEvent, chat);
+                }
+                removeClientFromChat(client, chatId);
+                return null;
+            });
         } else {
             
-            connectedClients.remove(client);
+            sessions.remove(client);
+            deliveryManager.unregister(client);
         }
     }
     
     @Override
     public void registerClientToChat(ChatClient client, String nickname, int chatId) throws RemoteException {
         // Check if client is already registered to this chat
-        if (clientChatMap.containsKey(client) && clientChatMap.get(client) == chatId) {
+        if (roomRegistry.roomOf(client) == chatId) {
             return; // Client already registered to this chat
         }
+        checkRate(joinLimiter, sessions.findByNickname(nickname), nickname, "joining chats");
+        if (!sessions.isConnected(client)) {
+            admit(admission.checkSession(), nickname);
+        }
+        admit(admission.checkJoin(roomRegistry.memberCount(chatId)), nickname);
         
         // Register the client if not already registered
-        if (!connectedClients.containsKey(client)) {
-            connectedClients.put(client, nickname);
-        }
+        ClientSession session = sessions.bind(client, nickname);
+        resolveUserId(session);
+        deliveryManager.register(client, nickname);
         
-        // Register to chat room
-        List<ChatClient> clients = chatRooms.computeIfAbsent(chatId, k -> new ArrayList<>());
-        if (!clients.contains(client)) {
-            clients.add(client);
+        // Leave the room the client was in before on that room's own loop, like any leave
+        int previousChatId = roomRegistry.roomOf(client);
+        if (previousChatId != RoomRegistry.NO_ROOM && previousChatId != chatId) {
+            Chat previous = chatCache.get(previousChatId);
+            onRoomLoop(previousChatId, () -> {
+                if (roomRegistry.leave(client, previousChatId)) {
+                    if (previous != null) {
+                        publishToChat(leaveEvent(previousChatId, session.getUserId(), nickname), previous);
+                    }
+                    leavePresence(previousChatId, nickname);
+                }
+                return null;
+            });
         }
-        clientChatMap.put(client, chatId);
         
-        // Process chat
-        Chat chat = chatDAO.findById(chatId);
-        if (chat != null) {
-            // Log join message
-            String joinMessage = nickname + " has joined : " + getCurrentTime();
-            
-            // Update chat log
-            logMessageToChat(joinMessage, chat);
+        Chat chat = chatCache.get(chatId);
+        onRoomLoop(chatId, () -> {
+            // Register to chat room
+            boolean joined = roomRegistry.join(chatId, client);
             
-            // Notify all clients in the chat
-            broadcastMessageToChat(joinMessage, chatId);
+            // Process chat
+            if (chat != null) {
+                // Log join message
+                ChatEvent joinEvent = new ChatEvent(RecordType.JOIN, chatId, 0, session.getUserId(),
+                        System.currentTimeMillis(), nickname, nickname + " has joined : " + getCurrentTime());
+                
+                // Update chat log and notify all clients in the chat
+                publishToChat(joinEvent, chat);
+                
+                // Tell the others who joined and give the new member the full list
+                joinPresence(chatId, session, joined);
+            }
+            return null;
+        });
+    }
+    
+    @Override
+    public HistoryPage getHistory(int chatId, long beforeCursor, int limit) throws RemoteException {
+        Chat chat = chatCache.get(chatId);
+        if (chat == null) {
+            throw new RemoteException("Chat with ID " + chatId + " does not exist");
+        }
+        
+        // Pages of an active room are usually still in memory
+        HistoryPage recent = recentEvents.readPage(chatId, beforeCursor, Math.min(limit, ServerConfig.HISTORY_MAX_PAGE_SIZE));
+        if (recent != null) {
+            return recent;
+        }
+        
+        try {
+            return historyReader.readPage(chatId, chat.getLogFile(), beforeCursor, limit);
+        } catch (IOException e) {
+            System.err.println("Error reading history for chat " + chatId + ": " + e.getMessage());
+            throw new RemoteException("Error reading chat history: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public ResumeResult resumeChat(ChatClient client, String nickname, int chatId, long lastSeenSequence) throws RemoteException {
+        Chat chat = chatCache.get(chatId);
+        if (chat == null) {
+            throw new RemoteException("Chat with ID " + chatId + " does not exist");
+        }
+        
+        // Drop the stub this user left behind before the connection broke, on its room's loop.
+        // Leaving another chat is logged like any leave; this chat the user never really left.
+        ClientSession stale = sessions.findByNickname(nickname);
+        if (stale != null && !stale.getClient().equals(client)) {
+            ChatClient staleClient = stale.getClient();
+            int staleChatId = roomRegistry.roomOf(staleClient);
+            if (staleChatId != RoomRegistry.NO_ROOM) {
+                onRoomLoop(staleChatId, () -> {
+                    leaveGoneClient(staleClient, staleChatId, staleChatId != chatId);
+                    return null;
+                });
+            } else {
+                sessions.remove(staleClient);
+                deliveryManager.unregister(staleClient);
+            }
+        }
+        
+        ClientSession session = sessions.bind(client, nickname);
+        resolveUserId(session);
+        deliveryManager.register(client, nickname);
+        
+        // On the room's event loop nothing new is published meanwhile, so the replay and the
+        // live events that follow it reach the client in order and without a gap
+        ResumeResult result = onRoomLoop(chatId, () -> {
+            RoomSequencer.Sequence sequence = roomSequencer.forRoom(chatId, logFileOf(chat));
+            long lastSequence = sequence.peek() - 1;
+            long missed = lastSequence - lastSeenSequence;
+            boolean resumed = lastSeenSequence >= 0 && missed >= 0 && missed <= ServerConfig.RESUME_MAX_GAP;
+            int replayed = 0;
             
-            // Update user list for all clients in this chat
-            updateChatUserList(chatId);
+            if (resumed && missed > 0) {
+                List<ChatEvent> events = recentEvents.range(chatId, lastSeenSequence + 1, (int) missed);
+                if (events == null) {
+                    // Not in memory, read the log; lines may still be queued for the log writer
+                    try {
+                        events = logAppender.awaitWritten(ServerConfig.RESUME_LOG_WAIT_MS)
+                                ? historyReader.readEvents(chatId, logFileOf(chat), lastSeenSequence + 1, (int) missed)
+                                : null;
+                    } catch (IOException e) {
+                        System.err.println("Error replaying chat " + chatId + " for " + nickname + ": " + e.getMessage());
+                    }
+                }
+                if (events == null) {
+                    resumed = false;
+                } else {
+                    for (ChatEvent event : events) {
+                        deliveryManager.deliver(client, nickname, new MessageDelivery(event));
+                    }
+                    replayed = events.size();
+                }
+            }
+            boolean joined = roomRegistry.join(chatId, client);
+            joinPresence(chatId, session, joined);
+            return new ResumeResult(resumed, lastSequence, replayed);
+        });
+        
+        System.out.println(nickname + " resumed chat " + chatId
+                + (result.isResumed() ? ", replayed " + result.getReplayed() : ", needs a full reload"));
+        return result;
+    }
+    
+    @Override
+    public boolean isInChat(ChatClient client, int chatId) throws RemoteException {
+        return roomRegistry.roomOf(client) == chatId;
+    }
+    
+    @Override
+    public long renewLease(ChatClient client) throws RemoteException {
+        ClientSession session = sessions.get(client);
+        if (session == null) {
+            return 0;
+        }
+        session.renewLease(System.currentTimeMillis() + ServerConfig.LEASE_MS);
+        leaseReaper.track(session);
+        return ServerConfig.LEASE_MS;
+    }
+    
+    @Override
+    public PresenceUpdate getPresence(int chatId) throws RemoteException {
+        return presence.forRoom(chatId).snapshot();
+    }
+    
+    private boolean isCurrentSession(ClientSession session) {
+        return sessions.get(session.getClient()) == session;
+    }
+    
+    // Invoked by the lease reaper; the client may have renewed or resumed in the meantime
+    private void expireSession(ClientSession session) {
+        if (!isCurrentSession(session) || !session.isLeaseExpired(System.currentTimeMillis())) {
+            return;
+        }
+        System.out.println("Lease of " + session.getNickname() + " expired, removing the client");
+        try {
+            disconnect(session.getClient(), session.getNickname());
+        } catch (RemoteException e) {
+            System.err.println("Error removing expired client " + session.getNickname() + ": " + e.getMessage());
         }
     }
     
     private void broadcastMessage(String message) {
-        for (Map.Entry<ChatClient, String> entry : connectedClients.entrySet()) {
-            try {
-                entry.getKey().receiveMessage(message);
-            } catch (RemoteException e) {
-                
-                connectedClients.remove(entry.getKey());
-            }
+        MessageDelivery delivery = new MessageDelivery(message);
+        for (ClientSession session : sessions.sessions()) {
+            deliveryManager.deliver(session.getClient(), session.getNickname(), delivery);
         }
     }
     
     private void updateAllClientUserLists() {
         // Create a Set to avoid duplicate usernames
-        Set<String> uniqueUsers = new HashSet<>(connectedClients.values());
-        String[] userList = uniqueUsers.toArray(new String[0]);
+        String[] userList = sessions.nicknames().toArray(new String[0]);
         
-        for (ChatClient client : connectedClients.keySet()) {
-            try {
-                client.updateUserList(userList);
-            } catch (RemoteException e) {
-                // Remove disconnected client
-                connectedClients.remove(client);
-            }
+        for (ClientSession session : sessions.sessions()) {
+            deliveryManager.deliver(session.getClient(), session.getNickname(), c -> c.updateUserList(userList));
         }
     }
     
@@ -214,12 +462,9 @@ public class ChatServerImpl extends UnicastRemoteObject implements ChatServer {
         chatLog.add("Chat started at: " + chatStartTime);
         
         
-        for (ChatClient client : connectedClients.keySet()) {
-            try {
-                client.notifyChatStarted(chatStartTime);
-            } catch (RemoteException e) {
-                connectedClients.remove(client);
-            }
+        String startTime = chatStartTime;
+        for (ClientSession session : sessions.sessions()) {
+            deliveryManager.deliver(session.getClient(), session.getNickname(), c -> c.notifyChatStarted(startTime));
         }
     }
     
@@ -272,187 +517,462 @@ public class ChatServerImpl extends UnicastRemoteObject implements ChatServer {
     }
 
     
-    private void broadcastMessageToChat(String message, int chatId) {
-        List<ChatClient> clients = chatRooms.get(chatId);
-        if (clients != null) {
-            for (ChatClient client : clients) {
-                try {
-                    client.receiveMessage(message);
-                } catch (RemoteException e) {
-                    
-                    removeClientFromChat(client, chatId);
+    private void checkRate(RateLimiter limiter, ClientSession session, String action) throws RateLimitedException {
+        checkRate(limiter, session, session.getNickname(), action);
+    }
+    
+    // Refuses the call if the user's bucket is empty; the session may be null before the first join
+    private void checkRate(RateLimiter limiter, ClientSession session, String nickname, String action)
+            throws RateLimitedException {
+        long retryAfter = limiter.tryAcquire(nickname, session != null ? session.getRole() : Role.USER);
+        if (retryAfter > 0) {
+            System.out.println("Rate limit hit by " + nickname + " " + action + ", retry after " + retryAfter + " ms");
+            throw new RateLimitedException("You are " + action + " too fast, please wait "
+                    + Math.max(1, (retryAfter + 999) / 1000) + " s", retryAfter);
+        }
+    }
+    
+    private void admit(String refusal, String nickname) throws RemoteException {
+        if (refusal != null) {
+            System.out.println("Refusing " + nickname + ": " + refusal);
+            throw new RemoteException(refusal);
+        }
+    }
+    
+    private int sessionCount() {
+        return sessions.size();
+    }
+    
+    private int roomCount() {
+        return roomRegistry.roomCount();
+    }
+    
+    // Chat lines held in memory: the rooms' recent events and everything waiting in outboxes
+    private long bufferedBytes() {
+        return recentEvents.getTotalBytes() + deliveryManager.getQueuedBytes();
+    }
+    
+    // Looks up the database id behind a session once, so events can carry it
+    private void resolveUserId(ClientSession session) {
+        if (session.getUserId() != 0 || userDAO == null) {
+            return;
+        }
+        try {
+            User user = userDAO.findByUsernameOrNickname(session.getNickname());
+            if (user != null) {
+                session.setUserId(user.getId());
+                // The same check the login form uses to open the admin dashboard
+                if ("admin".equals(user.getUsername())) {
+                    session.setRole(Role.ADMIN);
                 }
             }
+        } catch (Exception e) {
+            System.err.println("Error looking up user " + session.getNickname() + ": " + e.getMessage());
         }
     }
+    
+    private void broadcastEventToChat(ChatEvent event, int chatId) {
+        MessageDelivery delivery = new MessageDelivery(event);
+        long now = System.currentTimeMillis();
+        fanOut.deliver(roomRegistry.members(chatId), client -> {
+            // Clients whose lease ran out are about to be reaped, calling them would only time out
+            ClientSession session = sessions.get(client);
+            if (session != null && session.isLeaseExpired(now)) {
+                return false;
+            }
+            return deliveryManager.deliver(client, session != null ? session.getNickname() : null, delivery);
+        });
+    }
 
     
-    private void updateChatUserList(int chatId) {
-        List<ChatClient> clients = chatRooms.get(chatId);
-        if (clients != null && !clients.isEmpty()) {
-            // Use Set to avoid duplicates
-            Set<String> uniqueUsers = new HashSet<>();
-            for (ChatClient client : clients) {
-                String nickname = connectedClients.get(client);
-                if (nickname != null) {
-                    uniqueUsers.add(nickname);
-                }
+    /**
+     * Adds a client's user to a room's presence. The client gets a snapshot of everyone
+     * right away; the other members get the change with the next coalesced update.
+     * Updates are queued under the room's presence lock so every member sees the
+     * versions in order.
+     *
+     * @param newMember false if the client was already in the room, which only resends the snapshot
+     */
+    private void joinPresence(int chatId, ClientSession session, boolean newMember) {
+        RoomPresence room = presence.forRoom(chatId);
+        boolean changed;
+        synchronized (room) {
+            changed = newMember && room.join(session.getNickname(), session.getUserId());
+            deliverPresence(session, room, room.snapshot());
+        }
+        // Outside the lock: with no coalescing window this sends to the whole room right away
+        if (changed) {
+            presenceCoalescer.changed(room);
+        }
+    }
+    
+    private void leavePresence(int chatId, String nickname) {
+        RoomPresence room = presence.get(chatId);
+        if (room == null || nickname == null) {
+            return;
+        }
+        if (room.leave(nickname)) {
+            presenceCoalescer.changed(room);
+        }
+    }
+    
+    // Invoked by the coalescer, one flush of a room at a time and without its presence lock
+    private int sendPresence(RoomPresence room, PresenceUpdate update) {
+        long now = System.currentTimeMillis();
+        return fanOut.deliver(roomRegistry.members(room.getChatId()), client -> {
+            ClientSession session = sessions.get(client);
+            if (session == null || session.isLeaseExpired(now)) {
+                return false;
             }
-            
-            String[] usersArray = uniqueUsers.toArray(new String[0]);
-            for (ChatClient client : clients) {
+            deliverPresence(session, room, update);
+            return true;
+        });
+    }
+    
+    // Clients that predate presence updates get the full list of names instead
+    private void deliverPresence(ClientSession session, RoomPresence room, PresenceUpdate update) {
+        deliveryManager.deliver(session.getClient(), session.getNickname(), client -> {
+            if (!session.isLegacyPresence()) {
                 try {
-                    client.updateUserList(usersArray);
+                    client.updatePresence(update);
+                    return;
                 } catch (RemoteException e) {
-                    // Remove disconnected client
-                    removeClientFromChat(client, chatId);
+                    if (!LegacyClients.isUnsupportedMethod(e)) {
+                        throw e;
+                    }
+                    session.markLegacyPresence();
                 }
             }
-        }
+            client.updateUserList(room.nicknames());
+        });
     }
 
-    
     private void removeClientFromChat(ChatClient client, int chatId) {
-        List<ChatClient> clients = chatRooms.get(chatId);
-        if (clients != null) {
-            clients.remove(client);
-            if (clients.isEmpty()) {
-                chatRooms.remove(chatId);
-            }
+        ClientSession session = sessions.get(client);
+        boolean left = roomRegistry.leave(client, chatId);
+        sessions.remove(client);
+        deliveryManager.unregister(client);
+        // Presence is by nickname, which a newer client of the same user may still hold
+        if (left && session != null && !rejoined(session, chatId)) {
+            leavePresence(chatId, session.getNickname());
         }
-        clientChatMap.remove(client);
-        connectedClients.remove(client);
     }
-
     
-    private synchronized void logMessageToChat(String message, Chat chat) {
-        // Create logs directory if it doesn't exist
-        File logsDir = new File("logs");
-        if (!logsDir.exists()) {
-            logsDir.mkdir();
+    // Invoked by the delivery workers when a client's outbox gives up on it
+    private void handleDeliveryFailure(ClientOutbox outbox) {
+        dropGoneClient(outbox.getClient());
+    }
+    
+    // Queues taking a client that went away out of whatever chat it is in
+    private void dropGoneClient(ChatClient client) {
+        int chatId = roomRegistry.roomOf(client);
+        if (chatId == RoomRegistry.NO_ROOM) {
+            sessions.remove(client);
+            return;
         }
-        
-        String logFile = chat.getLogFile();
-        if (logFile == null || logFile.isEmpty()) {
-            // Generate a new log file name with timestamp and ensure it's unique
-            String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-            String chatName = chat.getName() != null ? chat.getName() : "Chat_" + chat.getId();
-            logFile = "logs/chat_" + chatName.replaceAll("[^a-zA-Z0-9]", "_") + "_" + timestamp + ".txt";
-            
-            // Update the chat with the new log file path
-            chat.setLogFile(logFile);
-            try {
-                chatDAO.saveChat(chat);
-            } catch (Exception e) {
-                System.err.println("Error saving chat with log file path: " + e.getMessage());
-                e.printStackTrace();
-            }
-            
-            // Initialize the log file with header information
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(logFile))) {
-                writer.write("[HEADER]Chat '" + chatName + "' created at " + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()));
-                writer.newLine();
-                writer.write("[ADMIN]Created by admin: " + (chat.getAdmin() != null ? chat.getAdmin().getUsername() : "system"));
-                writer.newLine();
-                writer.write("[SEPARATOR]-------------------------------------------");
-                writer.newLine();
-            } catch (IOException e) {
-                System.err.println("Error creating chat log file: " + e.getMessage());
-                e.printStackTrace();
-                return; // Exit if we can't create the log file
-            }
+        try {
+            roomLoops.execute(chatId, () -> leaveGoneClient(client, chatId, true));
+        } catch (RejectedExecutionException e) {
+            // A dead client must not stay a member, so leave without a log line rather than not at all
+            System.err.println("Event loop of chat " + chatId + " is full, removing "
+                    + sessions.nicknameOf(client) + " without a leave line");
+            removeClientFromChat(client, chatId);
         }
-        
-        // Prevent duplicate messages by checking if the last written message is identical
-        String lastMessage = readLastMessageFromLog(logFile);
-        if (lastMessage != null && lastMessage.equals(message)) {
-            System.out.println("Duplicate message detected, skipping: " + message);
+    }
+    
+    // Takes a client that went away out of its chat, logging and announcing the leave if asked;
+    // runs on the chat's event loop, like a normal leave
+    private void leaveGoneClient(ChatClient client, int chatId, boolean announce) {
+        if (roomRegistry.roomOf(client) != chatId) {
+            // Moved on in the meantime, follow it to its new chat (if any)
+            dropGoneClient(client);
             return;
         }
+        ClientSession session = sessions.get(client);
+        // Removed first, so the leave is not queued to the dead client
+        removeClientFromChat(client, chatId);
+        Chat chat = chatCache.get(chatId);
+        if (announce && session != null && chat != null && !rejoined(session, chatId)) {
+            publishToChat(leaveEvent(chatId, session.getUserId(), session.getNickname()), chat);
+        }
+    }
+    
+    // True if the session's user is in the chat again with a newer client
+    private boolean rejoined(ClientSession session, int chatId) {
+        ClientSession current = sessions.findByNickname(session.getNickname());
+        return current != null && current != session && roomRegistry.roomOf(current.getClient()) == chatId;
+    }
+    
+    private ChatEvent leaveEvent(int chatId, int userId, String nickname) {
+        return new ChatEvent(RecordType.LEAVE, chatId, 0, userId, System.currentTimeMillis(),
+                nickname, nickname + " left : " + getCurrentTime());
+    }
+    
+    /**
+     * Flushes and closes the chat logs and stops the delivery workers
+     */
+    public void shutdown() {
+        leaseReaper.shutdown();
+        roomLoops.shutdown();
+        presenceCoalescer.shutdown();
+        fanOut.shutdown();
+        idleRooms.shutdown();
+        messageLimiter.shutdown();
+        joinLimiter.shutdown();
+        logAppender.shutdown();
+        historyReader.close();
+        deliveryManager.shutdown();
+    }
+    
+    public String getMetricsReport() {
+        return "Sessions: " + sessions.size() + ", rooms: " + roomRegistry.roomCount()
+                + ", sequenced rooms: " + roomSequencer.size()
+                + ", presence rooms: " + presence.size()
+                + ", clients in rooms: " + roomRegistry.clientCount()
+                + "\n" + admission.describeMetrics()
+                + "\n" + roomLoops.describeMetrics()
+                + "\n" + fanOut.describeMetrics()
+                + "\n" + chatCache.describeMetrics()
+                + "\n" + recentEvents.describeMetrics()
+                + "\n" + idleRooms.describeMetrics()
+                + "\n" + messageIds.describeMetrics()
+                + "\n" + messageLimiter.describeMetrics()
+                + "\n" + joinLimiter.describeMetrics()
+                + "\n" + leaseReaper.describeMetrics()
+                + "\n" + presenceCoalescer.describeMetrics()
+                + "\n" + logAppender.describeMetrics()
+                + "\n" + deliveryManager.describeMetrics();
+    }
+
+    
+    /**
+     * Stamps an event with the room's next sequence number, logs it and queues it for
+     * every member. Runs on the room's event loop, so the log and every member's outbox
+     * see a room's events in the same order.
+     *
+     * @return the stamped event, or null if it duplicated the last logged line and was dropped
+     */
+    private ChatEvent publishToChat(ChatEvent event, Chat chat) {
+        idleRooms.touch(event.getChatId());
+        RoomSequencer.Sequence sequence = roomSequencer.forRoom(event.getChatId(), logFileOf(chat));
+        String logFile = logFileOf(chat);
+        if (logFile == null) {
+            logFile = createChatLog(chat, sequence);
+        }
+        warmRecentEvents(event.getChatId(), logFile, sequence);
         
-        // Add identifier before writing message to log file
-        String messageWithIdentifier = message;
+        // The record type becomes the line's identifier tag
+        String messageWithIdentifier = event.toRecord().toTextLine();
         
-        if (message.contains(" has joined : ")) {
-            messageWithIdentifier = "[JOIN]" + message;
-        } else if (message.contains(" left : ")) {
-            messageWithIdentifier = "[LEAVE]" + message;
-        } else if (message.contains(": ")) {
-            messageWithIdentifier = "[MSG]" + message;
-        } else {
-            messageWithIdentifier = "[SYSTEM]" + message;
+        // Messages are deduplicated by id in sendMessage, so repeating "ok" is fine; other
+        // lines are still checked against the last lines written to this log
+        if (event.getType() != RecordType.MSG && duplicateFilter.isDuplicate(logFile, messageWithIdentifier)) {
+            System.out.println("Duplicate message detected, skipping: " + event.toLegacyMessage());
+            return null;
         }
         
-        // Append the message to the log file with retries
-        int maxRetries = 3;
-        boolean success = false;
+        ChatEvent stamped = event.withSequence(sequence.next());
         
-        for (int retry = 0; retry < maxRetries && !success; retry++) {
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(logFile, true))) {
-                writer.write(messageWithIdentifier);
-                writer.newLine();
-                writer.flush(); // Ensure content is written to disk
-                success = true;
-            } catch (IOException e) {
-                System.err.println("Error writing to chat log (attempt " + (retry+1) + "): " + e.getMessage());
-                e.printStackTrace();
-                
-                // Wait a moment before retrying
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                }
+        // Hand the line to the log writer thread, this never blocks
+        logAppender.append(logFile, messageWithIdentifier);
+        recentEvents.add(stamped);
+        broadcastEventToChat(stamped, stamped.getChatId());
+        return stamped;
+    }
+    
+    // Gives a room that is not in memory yet its ring, filled with the tail of its log.
+    // Called on the room's event loop, so no event is published in between.
+    private void warmRecentEvents(int chatId, String logFile, RoomSequencer.Sequence sequence) {
+        if (recentEvents.get(chatId) != null) {
+            return;
+        }
+        RecentEvents recent = recentEvents.getOrCreate(chatId);
+        long next = sequence.peek();
+        int count = (int) Math.min(next, recent.getCapacity());
+        if (count == 0 || !logAppender.awaitWritten(ServerConfig.RESUME_LOG_WAIT_MS)) {
+            // The ring starts with the next event; older pages come from the log
+            return;
+        }
+        try {
+            for (ChatEvent event : historyReader.readEvents(chatId, logFile, next - count, count)) {
+                recentEvents.add(event);
             }
+        } catch (IOException e) {
+            System.err.println("Error loading recent events of chat " + chatId + ": " + e.getMessage());
         }
-        
-        if (!success) {
-            System.err.println("Failed to write message to log after " + maxRetries + " attempts: " + messageWithIdentifier);
+    }
+    
+    // Tells the client a room's event loop is full and when to try again
+    private static ChatBusyException busy() {
+        return new ChatBusyException("The chat is busy, please try again", ServerConfig.BUSY_RETRY_AFTER_MS);
+    }
+    
+    // Runs a task on the room's event loop and waits for it
+    private <T> T onRoomLoop(int chatId, Callable<T> task) throws RemoteException {
+        try {
+            return roomLoops.call(chatId, task);
+        } catch (RemoteException e) {
+            throw e;
+        } catch (RejectedExecutionException e) {
+            System.err.println("Event loop of chat " + chatId + " is full");
+            throw busy();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for chat " + chatId);
+        } catch (Exception e) {
+            System.err.println("Error in chat " + chatId + ": " + e.getMessage());
+            throw new RemoteException("Error processing chat " + chatId + ": " + e.getMessage(), e);
         }
     }
-
-    // Add helper method to read last message from log file
-    private String readLastMessageFromLog(String logFile) {
+    
+    private static String logFileOf(Chat chat) {
+        String logFile = chat.getLogFile();
+        return logFile == null || logFile.isEmpty() ? null : logFile;
+    }
+    
+    // Recovers a room's sequence number from its log; queued lines are not counted, which is
+    // fine because this only runs before the room's first line in this process or after the
+    // room was released, which waits for its lines to be written
+    private long countLogLines(String logFile) {
         try {
-            File file = new File(logFile);
-            if (!file.exists() || file.length() == 0) {
-                return null;
-            }
-            
-            String lastLine = null;
-            try (java.io.RandomAccessFile raf = new java.io.RandomAccessFile(file, "r")) {
-                long fileLength = file.length() - 1;
-                StringBuilder sb = new StringBuilder();
-                
-                for(long pointer = fileLength; pointer >= 0; pointer--) {
-                    raf.seek(pointer);
-                    char c = (char)raf.read();
-                    
-                    if (c == '\n' && sb.length() > 0) {
-                        lastLine = sb.reverse().toString();
-                        break;
-                    }
-                    
-                    if (c != '\r') {
-                        sb.append(c);
-                    }
-                }
-                
-                if (lastLine == null && sb.length() > 0) {
-                    lastLine = sb.reverse().toString();
-                }
-            }
-            
-            return lastLine;
+            return historyReader.lineCount(logFile);
         } catch (IOException e) {
-            System.err.println("Error reading last message from log: " + e.getMessage());
-            return null;
+            throw new UncheckedIOException("Could not read chat log " + logFile, e);
         }
     }
-
-    // Add this helper method to check if nickname is already in use
-    private boolean isNicknameAlreadyConnected(String nickname) {
-        return connectedClients.values().contains(nickname);
+    
+    // Invoked by the log writer when lines were dropped: the sequence numbers stamped on them
+    // are line positions that now do not exist, so every later one would be off
+    private void onLogWriteFailed(String logFile) {
+        int chatId = roomSequencer.roomOf(logFile);
+        if (chatId >= 0) {
+            resyncSequenceLater(chatId, logFile);
+        }
+    }
+    
+    private void resyncSequenceLater(int chatId, String logFile) {
+        try {
+            roomLoops.execute(chatId, () -> resyncSequence(chatId, logFile));
+        } catch (RejectedExecutionException e) {
+            System.err.println("Event loop of chat " + chatId + " is full, its sequence may stay ahead of "
+                    + logFile + " until the room is released");
+        }
+    }
+    
+    // Recounts a room's sequence from its log once everything queued for it has been written
+    private void resyncSequence(int chatId, String logFile) {
+        if (!logAppender.awaitWritten(ServerConfig.RESUME_LOG_WAIT_MS)) {
+            resyncSequenceLater(chatId, logFile);
+            return;
+        }
+        if (!logFile.equals(roomSequencer.release(chatId))) {
+            return; // Released or moved to another log in the meantime
+        }
+        // The ring holds events under the old numbers; resumes fall back to the log meanwhile
+        recentEvents.remove(chatId);
+        historyReader.release(logFile);
+        System.err.println("Lines of chat " + chatId + " were lost, its sequence is recounted from " + logFile);
+    }
+    
+    // Invoked by the idle tracker; the room's state is owned by its event loop
+    private void onRoomIdle(int chatId) {
+        onRoomLoopLater(chatId, () -> releaseRoom(chatId));
+    }
+    
+    private void onRoomAbandoned(int chatId) {
+        onRoomLoopLater(chatId, () -> endIdleChat(chatId));
+    }
+    
+    private void onRoomLoopLater(int chatId, Runnable task) {
+        try {
+            roomLoops.execute(chatId, task);
+        } catch (RejectedExecutionException e) {
+            // A loop this busy has better things to do, the room is checked again later
+            System.err.println("Event loop of chat " + chatId + " is full, not releasing it now");
+        }
+    }
+    
+    // Drops what the server holds in memory for a quiet chat and closes its log file. All of
+    // it is rebuilt from the log if the chat becomes active again. The recent events stay
+    // until the cache's own idle timeout or memory cap drops them, so a room that keeps
+    // going quiet and coming back does not re-read its log tail every time.
+    private void releaseRoom(int chatId) {
+        if (!idleRooms.isIdle(chatId, System.currentTimeMillis())) {
+            return;
+        }
+        // The sequence is recovered by counting the log's lines, so they must all be written
+        if (!logAppender.awaitWritten(ServerConfig.RESUME_LOG_WAIT_MS)) {
+            System.err.println("Chat log writer is behind, not releasing chat " + chatId + " now");
+            return;
+        }
+        String logFile = roomSequencer.release(chatId);
+        if (logFile != null) {
+            logAppender.close(logFile);
+            duplicateFilter.forget(logFile);
+        } else {
+            // Only read, e.g. paged through, since it was last released
+            Chat chat = chatCache.get(chatId);
+            logFile = chat != null ? chat.getLogFile() : null;
+        }
+        if (logFile != null) {
+            historyReader.release(logFile);
+        }
+        recentEvents.evictIdle();
+        presence.releaseIfEmpty(chatId);
+        chatCache.invalidate(chatId);
+        System.out.println("Released idle chat " + chatId);
+    }
+    
+    // Ends a chat nobody has used for the end period, as if an admin had ended it
+    private void endIdleChat(int chatId) {
+        if (!idleRooms.isIdle(chatId, System.currentTimeMillis()) || roomRegistry.memberCount(chatId) > 0) {
+            return;
+        }
+        try {
+            Chat chat = chatCache.get(chatId);
+            if (chat != null && chat.getEndTime() == null) {
+                chatDAO.endChat(chatId, chat.getLogFile());
+                recentEvents.remove(chatId);
+                System.out.println("Ended idle chat " + chatId);
+            }
+        } catch (Exception e) {
+            System.err.println("Error ending idle chat " + chatId + ": " + e.getMessage());
+        }
+        releaseRoom(chatId);
+    }
+    
+    // Assigns a log file to a chat that does not have one yet and queues its header.
+    // Runs on the room's event loop, so concurrent first messages agree on a single file.
+    private String createChatLog(Chat chat, RoomSequencer.Sequence sequence) {
+        String logFile = logFileOf(chat);
+        if (logFile != null) {
+            return logFile;
+        }
+        
+        // Generate a new log file name with timestamp and ensure it's unique
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+        String chatName = chat.getName() != null ? chat.getName() : "Chat_" + chat.getId();
+        logFile = "logs/chat_" + chatName.replaceAll("[^a-zA-Z0-9]", "_") + "_" + timestamp + ".txt";
+        
+        // Update the chat with the new log file path
+        sequence.attach(logFile);
+        chat.setLogFile(logFile);
+        try {
+            chatDAO.saveChat(chat);
+        } catch (Exception e) {
+            System.err.println("Error saving chat with log file path: " + e.getMessage());
+            e.printStackTrace();
+        }
+        
+        // Initialize the log file with header information
+        // Header lines take the first sequence numbers, like any other line
+        logAppender.append(logFile, "[HEADER]Chat '" + chatName + "' created at " + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()));
+        logAppender.append(logFile, "[ADMIN]Created by admin: " + (chat.getAdmin() != null ? chat.getAdmin().getUsername() : "system"));
+        logAppender.append(logFile, "[SEPARATOR]-------------------------------------------");
+        sequence.next();
+        sequence.next();
+        sequence.next();
+        return logFile;
     }
 }
 
@@ -0,0 +1,60 @@
+package server.rmi;
+
+import server.observer.ChatEvent;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of a chat's history, oldest line first. The same entries are available as
+ * raw log lines and, from servers that provide them, as {@link ChatEvent}s.
+ *
+ * Cursors are line positions in the chat log. To fetch the page before this one,
+ * pass {@link #getNextCursor()} as the cursor of the next getHistory call.
+ */
+public class HistoryPage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Cursor value asking for the most recent page */
+    public static final long LATEST = -1;
+
+    private final List<String> lines;
+    private final List<ChatEvent> events;
+    private final long nextCursor;
+    private final boolean hasMore;
+
+    public HistoryPage(List<String> lines, long nextCursor, boolean hasMore) {
+        this(lines, null, nextCursor, hasMore);
+    }
+
+    public HistoryPage(List<String> lines, List<ChatEvent> events, long nextCursor, boolean hasMore) {
+        this.lines = new ArrayList<>(lines);
+        this.events = events != null ? new ArrayList<>(events) : null;
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+    }
+
+    public static HistoryPage empty() {
+        return new HistoryPage(new ArrayList<>(), new ArrayList<>(), 0, false);
+    }
+
+    public List<String> getLines() {
+        return lines;
+    }
+
+    /**
+     * @return the page as events, or null if the server only sent lines
+     */
+    public List<ChatEvent> getEvents() {
+        return events;
+    }
+
+    public long getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+}
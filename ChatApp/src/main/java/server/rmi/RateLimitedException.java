@@ -0,0 +1,25 @@
+package server.rmi;
+
+import java.rmi.RemoteException;
+
+/**
+ * Thrown when a client calls faster than its rate limit allows. The call had no effect;
+ * the client may repeat it after {@link #getRetryAfterMillis()}.
+ */
+public class RateLimitedException extends RemoteException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    public RateLimitedException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * How long to wait before the same call will be accepted.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,39 @@
+package server.rmi;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of resuming a chat after a reconnect.
+ *
+ * When {@link #isResumed()} is true the events the client missed have been queued to it
+ * ahead of any new ones. Otherwise the gap was too large (or unknown) and the client
+ * should reload the chat's history; it is a member of the chat again either way.
+ */
+public class ResumeResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean resumed;
+    private final long lastSequence;
+    private final int replayed;
+
+    public ResumeResult(boolean resumed, long lastSequence, int replayed) {
+        this.resumed = resumed;
+        this.lastSequence = lastSequence;
+        this.replayed = replayed;
+    }
+
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * Sequence number of the last event in the chat when the client rejoined, -1 if none.
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public int getReplayed() {
+        return replayed;
+    }
+}
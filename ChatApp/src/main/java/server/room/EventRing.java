@@ -0,0 +1,160 @@
+package server.room;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, pre-allocated ring of tasks with many producers and a single consumer.
+ *
+ * Producers claim the next sequence with a CAS, fill the slot and publish it by writing
+ * the sequence into the slot's marker; nothing is allocated and no lock is taken. The
+ * consumer takes published slots in sequence order, in batches, and only then frees
+ * them for producers. While the ring is empty the consumer waits as its
+ * {@link WaitStrategy} says.
+ */
+class EventRing {
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long SLEEP_NANOS = 100_000;
+
+    private final Runnable[] tasks;
+    private final long[] enqueuedAt;
+    private final AtomicLongArray published;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+    private volatile Thread consumer;
+    private volatile boolean parked;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    EventRing(int capacity, WaitStrategy waitStrategy) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.tasks = new Runnable[size];
+        this.enqueuedAt = new long[size];
+        this.published = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Must be called by the consuming thread before it first waits.
+     */
+    void setConsumer(Thread consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * @return false if the ring is full
+     */
+    boolean offer(Runnable task) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= tasks.length) {
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int index = (int) sequence & mask;
+        tasks[index] = task;
+        enqueuedAt[index] = System.nanoTime();
+        // A volatile write, so the check of parked below cannot move ahead of it
+        published.set(index, sequence);
+        if (parked) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Takes up to maxBatch published tasks, in order. Only the consumer may call this.
+     *
+     * @return the number of tasks taken, 0 if none are published
+     */
+    int drainTo(Runnable[] batch, long[] batchEnqueuedAt, int maxBatch) {
+        long next = consumed;
+        int count = 0;
+        while (count < maxBatch) {
+            int index = (int) (next + count) & mask;
+            if (published.get(index) != next + count) {
+                break;
+            }
+            batch[count] = tasks[index];
+            batchEnqueuedAt[count] = enqueuedAt[index];
+            tasks[index] = null;
+            count++;
+        }
+        if (count > 0) {
+            consumed = next + count;
+        }
+        return count;
+    }
+
+    /**
+     * Waits as the wait strategy says until a task is published or the caller should
+     * check whether it is still running. Only the consumer may call this.
+     */
+    void await(int idleRounds) {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                Thread.onSpinWait();
+                break;
+            case YIELDING:
+                if (idleRounds < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+                break;
+            case SLEEPING:
+                if (idleRounds < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else if (idleRounds < SPIN_TRIES + YIELD_TRIES) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(this, SLEEP_NANOS);
+                }
+                break;
+            case BLOCKING:
+            default:
+                parked = true;
+                // Recheck after announcing, a producer that published before it saw parked
+                // as false would otherwise never wake us
+                if (!isPublished(consumed)) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+                break;
+        }
+    }
+
+    /**
+     * Wakes the consumer from a blocking wait, e.g. to let it see that it was stopped.
+     */
+    void wakeUp() {
+        Thread thread = consumer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private boolean isPublished(long sequence) {
+        return published.get((int) sequence & mask) == sequence;
+    }
+
+    int size() {
+        return (int) Math.max(0, claimed.get() - consumed);
+    }
+
+    int capacity() {
+        return tasks.length;
+    }
+}
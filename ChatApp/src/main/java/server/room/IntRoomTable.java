@@ -0,0 +1,115 @@
+package server.room;
+
+/**
+ * Open-addressing hash table from primitive int chat ids to rooms (linear probing,
+ * backward-shift deletion), so room lookups neither box the key nor chase entry nodes.
+ *
+ * Not thread-safe on its own; {@link RoomRegistry} guards each table with a StampedLock
+ * and lets readers probe optimistically, which is why lookups are bounded by the table
+ * length and tolerate seeing a table that is being modified.
+ */
+final class IntRoomTable {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private Room[] values = new Room[INITIAL_CAPACITY];
+    private int size;
+
+    Room get(int key) {
+        int[] k = keys;
+        Room[] v = values;
+        if (k.length != v.length) {
+            // Caught in the middle of a resize, the caller will validate and retry
+            return null;
+        }
+        int mask = k.length - 1;
+        int index = slot(key, mask);
+        for (int probes = 0; probes < k.length; probes++) {
+            Room room = v[index];
+            if (room == null) {
+                return null;
+            }
+            if (k[index] == key) {
+                return room;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    Room getOrCreate(int key) {
+        Room existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        Room room = new Room(key);
+        insert(key, room);
+        size++;
+        return room;
+    }
+
+    Room remove(int key) {
+        int mask = keys.length - 1;
+        int index = slot(key, mask);
+        while (values[index] != null && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        Room removed = values[index];
+        if (removed == null) {
+            return null;
+        }
+
+        // Shift following entries of the same probe run back into the gap
+        int gap = index;
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (values[next] == null) {
+                break;
+            }
+            int ideal = slot(keys[next], mask);
+            if (((next - ideal) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        values[gap] = null;
+        size--;
+        return removed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void insert(int key, Room room) {
+        int mask = keys.length - 1;
+        int index = slot(key, mask);
+        while (values[index] != null) {
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = room;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Room[] oldValues = values;
+        keys = new int[capacity];
+        values = new Room[capacity];
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                insert(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
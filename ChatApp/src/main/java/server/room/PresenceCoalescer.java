@@ -0,0 +1,103 @@
+package server.room;
+
+import server.observer.PresenceUpdate;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * Sends a room's presence changes at most once per window: the first change in a room
+ * schedules a flush, and every join and leave until then goes out in the same update.
+ * When a class starts and hundreds join at once, members get a handful of updates
+ * instead of one per join.
+ *
+ * With a window of 0 every change is sent straight away, on the thread that made it;
+ * callers then make a room's changes from one thread at a time, its event loop.
+ *
+ * An update is taken from the room under its monitor but sent to the members after
+ * releasing it, so a member dropped while the update is handed out can leave the room
+ * without waiting for the send to finish.
+ */
+public class PresenceCoalescer {
+    private final long windowMillis;
+    private final ToIntBiFunction<RoomPresence, PresenceUpdate> sender;
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder updatesSent = new LongAdder();
+    private final LongAdder deliveriesSaved = new LongAdder();
+    private final LongAdder addedLatencyMillis = new LongAdder();
+    private final AtomicLong maxAddedLatencyMillis = new AtomicLong();
+
+    /**
+     * @param sender sends an update to a room's members, returning how many it went to;
+     *               called without holding the room's monitor
+     */
+    public PresenceCoalescer(long windowMillis, ToIntBiFunction<RoomPresence, PresenceUpdate> sender) {
+        this.windowMillis = windowMillis;
+        this.sender = sender;
+        this.scheduler = windowMillis > 0 ? Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-presence-coalescer");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+    }
+
+    /**
+     * Called after a join or leave changed a room's presence.
+     */
+    public void changed(RoomPresence room) {
+        if (scheduler == null) {
+            flush(room);
+        } else if (room.scheduleFlush()) {
+            scheduler.schedule(() -> flush(room), windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush(RoomPresence room) {
+        try {
+            int pending;
+            long waited;
+            long oldest;
+            PresenceUpdate update;
+            synchronized (room) {
+                long now = System.currentTimeMillis();
+                pending = room.getPendingChanges();
+                waited = room.getPendingWaitMillis(now);
+                oldest = pending > 0 ? now - room.getPendingSince() : 0;
+                update = room.drain();
+            }
+            int members = update != null ? sender.applyAsInt(room, update) : 0;
+
+            changes.add(pending);
+            addedLatencyMillis.add(waited);
+            if (update != null) {
+                updatesSent.increment();
+                deliveriesSaved.add((long) Math.max(0, pending - 1) * members);
+            }
+            maxAddedLatencyMillis.accumulateAndGet(oldest, Math::max);
+        } catch (RuntimeException e) {
+            System.err.println("Error sending presence of chat " + room.getChatId() + ": " + e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    public String describeMetrics() {
+        long changeCount = changes.sum();
+        long sent = updatesSent.sum();
+        return "Presence: window=" + windowMillis + "ms, changes=" + changeCount
+                + ", updates sent=" + sent + ", updates saved=" + Math.max(0, changeCount - sent)
+                + ", deliveries saved=" + deliveriesSaved.sum()
+                + ", added join latency avg=" + (changeCount > 0 ? addedLatencyMillis.sum() / changeCount : 0)
+                + "ms max=" + maxAddedLatencyMillis.get() + "ms";
+    }
+}
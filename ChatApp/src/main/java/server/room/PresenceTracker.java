@@ -0,0 +1,40 @@
+package server.room;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link RoomPresence} of every chat that has had members. Rooms are kept once
+ * empty so their version keeps going up if people come back, until they are released
+ * for being idle; clients reset their version when they open a chat.
+ */
+public class PresenceTracker {
+    private final Map<Integer, RoomPresence> rooms = new ConcurrentHashMap<>();
+    private final int snapshotInterval;
+
+    public PresenceTracker(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public RoomPresence forRoom(int chatId) {
+        return rooms.computeIfAbsent(chatId, id -> new RoomPresence(id, snapshotInterval));
+    }
+
+    /**
+     * @return the presence of a room, or null if nobody has joined it yet
+     */
+    public RoomPresence get(int chatId) {
+        return rooms.get(chatId);
+    }
+
+    /**
+     * Drops a room's presence if nobody is in it.
+     */
+    public void releaseIfEmpty(int chatId) {
+        rooms.computeIfPresent(chatId, (id, room) -> room.isEmpty() ? null : room);
+    }
+
+    public int size() {
+        return rooms.size();
+    }
+}
@@ -0,0 +1,164 @@
+package server.room;
+
+import server.observer.ChatEvent;
+import server.rmi.HistoryPage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Recent events of the active rooms, so joins, history pages and resumes can be served
+ * from memory instead of the log files.
+ *
+ * Rooms idle for longer than the idle timeout are dropped, and when the rings together
+ * hold more than the memory cap the least recently active rooms are dropped first.
+ */
+public class RecentEventCache {
+    private final Map<Integer, RecentEvents> rooms = new ConcurrentHashMap<>();
+    private final IntUnaryOperator capacityForRoom;
+    private final long maxBytes;
+    private final long idleMillis;
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacityForRoom ring capacity (in events) for a chat id
+     */
+    public RecentEventCache(IntUnaryOperator capacityForRoom, long maxBytes, long idleMillis) {
+        this.capacityForRoom = capacityForRoom;
+        this.maxBytes = maxBytes;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * @return the room's ring, or null if the room is not cached
+     */
+    public RecentEvents get(int chatId) {
+        return rooms.get(chatId);
+    }
+
+    /**
+     * Creates the (empty) ring of a room, dropping idle rooms while at it.
+     */
+    public RecentEvents getOrCreate(int chatId) {
+        RecentEvents recent = rooms.get(chatId);
+        if (recent != null) {
+            return recent;
+        }
+        evictIdle();
+        return rooms.computeIfAbsent(chatId, id -> new RecentEvents(id, capacityForRoom.applyAsInt(id), totalBytes));
+    }
+
+    /**
+     * Appends an event to its room's ring, if the room is cached.
+     */
+    public void add(ChatEvent event) {
+        RecentEvents recent = rooms.get(event.getChatId());
+        if (recent == null) {
+            return;
+        }
+        if (recent.add(event) > maxBytes) {
+            evictForMemory(recent);
+        }
+    }
+
+    /**
+     * Up to {@code count} events from sequence {@code from}, or null if they are not all in memory.
+     */
+    public List<ChatEvent> range(int chatId, long from, int count) {
+        RecentEvents recent = rooms.get(chatId);
+        List<ChatEvent> events = recent != null ? recent.range(from, count) : null;
+        if (events != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return events;
+    }
+
+    /**
+     * The page of up to {@code pageSize} events before {@code beforeCursor}, or the latest
+     * ones for {@link HistoryPage#LATEST}, if all of them are in memory; otherwise null.
+     */
+    public HistoryPage readPage(int chatId, long beforeCursor, int pageSize) {
+        RecentEvents recent = rooms.get(chatId);
+        long next = recent != null ? recent.nextSequence() : -1;
+        if (next < 0 || pageSize <= 0) {
+            misses.increment();
+            return null;
+        }
+        long end = beforeCursor < 0 ? next : Math.min(beforeCursor, next);
+        long start = Math.max(0, end - pageSize);
+        List<ChatEvent> events = range(chatId, start, (int) (end - start));
+        if (events == null) {
+            return null;
+        }
+        List<String> lines = new ArrayList<>(events.size());
+        for (ChatEvent event : events) {
+            lines.add(event.toRecord().toTextLine());
+        }
+        return new HistoryPage(lines, events, start, start > 0);
+    }
+
+    public void remove(int chatId) {
+        RecentEvents removed = rooms.remove(chatId);
+        if (removed != null) {
+            removed.release();
+        }
+    }
+
+    /**
+     * Drops rooms that have seen no activity within the idle timeout.
+     */
+    public void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        for (RecentEvents recent : rooms.values()) {
+            if (recent.getLastActivityMillis() < cutoff && rooms.remove(recent.getChatId(), recent)) {
+                recent.release();
+                evictions.increment();
+            }
+        }
+    }
+
+    // Drops least recently active rooms, sparing the one being written, until under the cap
+    private void evictForMemory(RecentEvents keep) {
+        while (totalBytes.get() > maxBytes) {
+            RecentEvents oldest = null;
+            for (RecentEvents recent : rooms.values()) {
+                if (recent != keep && (oldest == null
+                        || recent.getLastActivityMillis() < oldest.getLastActivityMillis())) {
+                    oldest = recent;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            if (rooms.remove(oldest.getChatId(), oldest)) {
+                oldest.release();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Bytes held by all rooms' recent events.
+     */
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    public String describeMetrics() {
+        return "Recent events: rooms=" + rooms.size()
+                + ", bytes=" + totalBytes.get() + "/" + maxBytes
+                + ", hits=" + hits.sum() + ", misses=" + misses.sum()
+                + ", evictions=" + evictions.sum();
+    }
+}
@@ -0,0 +1,164 @@
+package server.room;
+
+import server.log.RecordType;
+import server.observer.ChatEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-capacity ring of the most recent events of one room, covering a contiguous
+ * range of sequence numbers.
+ *
+ * Events are stored column-wise: bodies as UTF-8 bytes and senders interned, so a
+ * full ring costs little more than the text it holds.
+ */
+public class RecentEvents {
+    // Rough per-slot cost of the columns and the byte[] header
+    static final int SLOT_OVERHEAD_BYTES = 48;
+
+    private final int chatId;
+    private final int capacity;
+    private final byte[] types;
+    private final long[] sequences;
+    private final long[] timestamps;
+    private final int[] senderIds;
+    private final String[] senders;
+    private final byte[][] bodies;
+    private final AtomicLong totalBytes;
+
+    private int head;   // slot of the oldest event
+    private int count;
+    private long bytes;
+    private boolean released;
+    private volatile long lastActivityMillis = System.currentTimeMillis();
+
+    /**
+     * @param totalBytes counter shared by all rooms, kept up to date with the bytes this ring holds
+     */
+    RecentEvents(int chatId, int capacity, AtomicLong totalBytes) {
+        this.chatId = chatId;
+        this.totalBytes = totalBytes;
+        this.capacity = Math.max(1, capacity);
+        this.types = new byte[this.capacity];
+        this.sequences = new long[this.capacity];
+        this.timestamps = new long[this.capacity];
+        this.senderIds = new int[this.capacity];
+        this.senders = new String[this.capacity];
+        this.bodies = new byte[this.capacity][];
+    }
+
+    /**
+     * Appends an event. An event that does not directly follow the newest one starts
+     * the ring over, so the ring never has holes. Does nothing once the ring is released.
+     *
+     * @return the bytes held by all rooms after the change
+     */
+    synchronized long add(ChatEvent event) {
+        if (released) {
+            return totalBytes.get();
+        }
+        long before = bytes;
+        if (count > 0 && event.getSequence() != sequences[slot(count - 1)] + 1) {
+            clear();
+        }
+        int slot;
+        if (count == capacity) {
+            slot = head;
+            bytes -= bodies[slot].length + SLOT_OVERHEAD_BYTES;
+            head = (head + 1) % capacity;
+        } else {
+            slot = slot(count);
+            count++;
+        }
+        byte[] body = event.getBody().getBytes(StandardCharsets.UTF_8);
+        types[slot] = event.getType().getCode();
+        sequences[slot] = event.getSequence();
+        timestamps[slot] = event.getTimestamp();
+        senderIds[slot] = event.getSenderId();
+        senders[slot] = event.getSender().intern();
+        bodies[slot] = body;
+        bytes += body.length + SLOT_OVERHEAD_BYTES;
+        lastActivityMillis = System.currentTimeMillis();
+        return totalBytes.addAndGet(bytes - before);
+    }
+
+    /**
+     * Empties the ring for good and takes its bytes off the shared counter.
+     */
+    synchronized void release() {
+        if (!released) {
+            released = true;
+            totalBytes.addAndGet(-bytes);
+            clear();
+        }
+    }
+
+    /**
+     * Up to {@code count} events starting at sequence {@code from}, or null if the ring
+     * does not reach back that far.
+     */
+    public synchronized List<ChatEvent> range(long from, int count) {
+        if (this.count == 0 || from < sequences[head]) {
+            return null;
+        }
+        lastActivityMillis = System.currentTimeMillis();
+        List<ChatEvent> events = new ArrayList<>();
+        int offset = (int) Math.min(from - sequences[head], this.count);
+        for (int i = offset; i < this.count && events.size() < count; i++) {
+            events.add(eventAt(slot(i)));
+        }
+        return events;
+    }
+
+    /**
+     * Sequence number of the oldest event held, or -1 if empty.
+     */
+    public synchronized long firstSequence() {
+        return count > 0 ? sequences[head] : -1;
+    }
+
+    /**
+     * Sequence number the next event will have, or -1 if empty.
+     */
+    public synchronized long nextSequence() {
+        return count > 0 ? sequences[slot(count - 1)] + 1 : -1;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public int getChatId() {
+        return chatId;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    long getLastActivityMillis() {
+        return lastActivityMillis;
+    }
+
+    private void clear() {
+        for (int i = 0; i < capacity; i++) {
+            senders[i] = null;
+            bodies[i] = null;
+        }
+        head = 0;
+        count = 0;
+        bytes = 0;
+    }
+
+    private int slot(int index) {
+        return (head + index) % capacity;
+    }
+
+    private ChatEvent eventAt(int slot) {
+        return new ChatEvent(RecordType.fromCode(types[slot]), chatId, sequences[slot], senderIds[slot],
+                timestamps[slot], senders[slot], new String(bodies[slot], StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,54 @@
+package server.room;
+
+import server.observer.ChatClient;
+
+/**
+ * Membership of one chat room.
+ *
+ * The member array is copy-on-write: writers replace it under the owning stripe's lock,
+ * readers take the current array and iterate it without any locking.
+ */
+final class Room {
+    static final ChatClient[] NO_MEMBERS = new ChatClient[0];
+
+    final int chatId;
+    volatile ChatClient[] members = NO_MEMBERS;
+
+    Room(int chatId) {
+        this.chatId = chatId;
+    }
+
+    // Caller must hold the stripe write lock
+    boolean add(ChatClient client) {
+        ChatClient[] current = members;
+        for (ChatClient member : current) {
+            if (member.equals(client)) {
+                return false;
+            }
+        }
+        ChatClient[] updated = new ChatClient[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = client;
+        members = updated;
+        return true;
+    }
+
+    // Caller must hold the stripe write lock
+    boolean remove(ChatClient client) {
+        ChatClient[] current = members;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].equals(client)) {
+                if (current.length == 1) {
+                    members = NO_MEMBERS;
+                } else {
+                    ChatClient[] updated = new ChatClient[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    members = updated;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,168 @@
+package server.room;
+
+import server.metrics.LatencyRecorder;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed set of single-threaded event loops. Every chat id maps to one loop, and all
+ * work that changes a room's state runs there, one task at a time in submission order,
+ * so a room needs no locks of its own and busy rooms on different loops run in parallel.
+ *
+ * Each loop takes its tasks from a pre-allocated {@link EventRing}, so queuing a
+ * message from an RMI thread is a CAS and a slot write. The loop drains whatever has
+ * piled up in one batch.
+ *
+ * Tasks should not block for long: rooms sharing a loop wait for each other.
+ */
+public class RoomEventLoops {
+    private static final int MAX_BATCH = 256;
+
+    private final Loop[] loops;
+    private final WaitStrategy waitStrategy;
+    private volatile boolean running = true;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LatencyRecorder queueWait = new LatencyRecorder("Room loop queue wait");
+    private final LatencyRecorder taskTime = new LatencyRecorder("Room loop task");
+
+    /**
+     * @param queueCapacity tasks a loop can have waiting, rounded up to a power of two;
+     *                      beyond that submissions are rejected
+     */
+    public RoomEventLoops(int loopCount, int queueCapacity, WaitStrategy waitStrategy) {
+        int count = Math.max(1, loopCount);
+        this.waitStrategy = waitStrategy;
+        loops = new Loop[count];
+        for (int i = 0; i < count; i++) {
+            loops[i] = new Loop(new EventRing(queueCapacity, waitStrategy), "chat-room-loop-" + i);
+        }
+        for (Loop loop : loops) {
+            loop.start();
+        }
+    }
+
+    /**
+     * Queues a task on the room's loop and returns at once.
+     *
+     * @throws RejectedExecutionException if the loop's queue is full or the loops were shut down
+     */
+    public void execute(int chatId, Runnable task) {
+        if (!running || !loopFor(chatId).ring.offer(task)) {
+            rejected.increment();
+            throw new RejectedExecutionException(running ? "Event loop of chat " + chatId + " is full"
+                    : "Event loops are shut down");
+        }
+    }
+
+    /**
+     * Runs a task on the room's loop and waits for its result. Runs it directly if the
+     * caller already is that loop.
+     *
+     * @throws RejectedExecutionException if the loop's queue is full
+     */
+    public <T> T call(int chatId, Callable<T> task) throws Exception {
+        if (isLoopOf(chatId)) {
+            return task.call();
+        }
+        FutureTask<T> future = new FutureTask<>(task);
+        execute(chatId, future);
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * True if the calling thread is the loop of the given room.
+     */
+    public boolean isLoopOf(int chatId) {
+        return Thread.currentThread() == loopFor(chatId);
+    }
+
+    /**
+     * Stops the loops once they have run what is already queued.
+     */
+    public void shutdown() {
+        running = false;
+        for (Loop loop : loops) {
+            loop.ring.wakeUp();
+        }
+    }
+
+    private Loop loopFor(int chatId) {
+        return loops[Math.floorMod(Integer.hashCode(chatId) * 0x9E3779B9, loops.length)];
+    }
+
+    public String describeMetrics() {
+        StringBuilder queued = new StringBuilder();
+        for (Loop loop : loops) {
+            queued.append(queued.length() > 0 ? "," : "").append(loop.ring.size());
+        }
+        long batchCount = batches.sum();
+        long taskCount = completed.sum();
+        return "Room loops: " + loops.length + " (" + waitStrategy + ", capacity " + loops[0].ring.capacity()
+                + "), queued=[" + queued + "], completed=" + taskCount + ", rejected=" + rejected.sum()
+                + ", avg batch=" + (batchCount > 0 ? taskCount / batchCount : 0)
+                + "\n  " + queueWait.describe()
+                + "\n  " + taskTime.describe();
+    }
+
+    private final class Loop extends Thread {
+        final EventRing ring;
+
+        Loop(EventRing ring, String name) {
+            super(name);
+            this.ring = ring;
+            setDaemon(true);
+            ring.setConsumer(this);
+        }
+
+        @Override
+        public void run() {
+            Runnable[] batch = new Runnable[MAX_BATCH];
+            long[] enqueuedAt = new long[MAX_BATCH];
+            int idleRounds = 0;
+            while (true) {
+                int count = ring.drainTo(batch, enqueuedAt, MAX_BATCH);
+                if (count == 0) {
+                    if (!running) {
+                        return;
+                    }
+                    ring.await(idleRounds++);
+                    continue;
+                }
+                idleRounds = 0;
+                batches.increment();
+                for (int i = 0; i < count; i++) {
+                    long start = System.nanoTime();
+                    queueWait.record(start - enqueuedAt[i]);
+                    runTask(batch[i]);
+                    batch[i] = null;
+                    taskTime.recordSince(start);
+                }
+                completed.add(count);
+            }
+        }
+
+        private void runTask(Runnable task) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Error in " + getName() + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package server.room;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Finds rooms that have gone quiet, using a timing wheel like the lease reaper's: one
+ * thread, a ring of buckets, one per tick, and each room in the bucket of the tick it
+ * would go idle at.
+ *
+ * Activity only updates a room's timestamp; the room is moved to a later bucket when its
+ * current one comes round and it turns out to have been active since. A room that stays
+ * quiet for the idle period is reported once as idle, and, if ending is enabled, once
+ * more as abandoned when it has been quiet for the longer end period. Activity after
+ * that starts over.
+ */
+public class RoomIdleTracker {
+    private final long tickMillis;
+    private final long idleMillis;
+    private final long endMillis;
+    private final List<List<Entry>> buckets;
+    private final Map<Integer, Entry> rooms = new ConcurrentHashMap<>();
+    private final IntConsumer onIdle;
+    private final IntConsumer onAbandoned;
+    private final Thread ticker;
+    private final LongAdder idled = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+
+    private int cursor;
+    private long cursorTime;
+    private volatile boolean running = true;
+
+    /**
+     * @param idleMillis  quiet time after which a room is reported idle
+     * @param endMillis   quiet time after which an idle room is reported abandoned; 0 never does
+     * @param onIdle      called on the tracker thread with the chat id of a room that went idle
+     * @param onAbandoned called on the tracker thread with the chat id of an abandoned room
+     */
+    public RoomIdleTracker(long tickMillis, long idleMillis, long endMillis,
+                           IntConsumer onIdle, IntConsumer onAbandoned) {
+        this.tickMillis = Math.max(1, tickMillis);
+        this.idleMillis = idleMillis;
+        this.endMillis = endMillis > idleMillis ? endMillis : 0;
+        int wheelSize = (int) Math.max(2, Math.min(4096, idleMillis / this.tickMillis + 2));
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        this.onIdle = onIdle;
+        this.onAbandoned = onAbandoned;
+        this.cursorTime = System.currentTimeMillis();
+        this.ticker = new Thread(this::run, "chat-room-idle-tracker");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * Records activity in a room, starting to track it if it is not tracked already.
+     */
+    public void touch(int chatId) {
+        long now = System.currentTimeMillis();
+        Entry entry = rooms.get(chatId);
+        if (entry != null) {
+            entry.lastActivity = now;
+            if (entry.stage == Stage.ACTIVE) {
+                return;
+            }
+        }
+        synchronized (this) {
+            entry = rooms.computeIfAbsent(chatId, Entry::new);
+            entry.lastActivity = now;
+            entry.stage = Stage.ACTIVE;
+            if (!entry.scheduled) {
+                entry.scheduled = true;
+                schedule(entry, now + idleMillis);
+            }
+        }
+    }
+
+    /**
+     * True if the room has had no activity for the idle period, e.g. to check again on
+     * the room's event loop before releasing it.
+     */
+    public boolean isIdle(int chatId, long now) {
+        Entry entry = rooms.get(chatId);
+        return entry == null || now - entry.lastActivity >= idleMillis;
+    }
+
+    public void shutdown() {
+        running = false;
+        ticker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                Thread.sleep(tickMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return;
+                }
+            }
+            // Catch up on ticks missed while the thread was not scheduled
+            while (running && cursorTime + tickMillis <= System.currentTimeMillis()) {
+                List<Entry> idle = new ArrayList<>();
+                List<Entry> ended = new ArrayList<>();
+                advance(idle, ended);
+                report(idle, onIdle, idled);
+                report(ended, onAbandoned, abandoned);
+            }
+        }
+    }
+
+    private static void report(List<Entry> entries, IntConsumer listener, LongAdder counter) {
+        for (Entry entry : entries) {
+            counter.increment();
+            try {
+                listener.accept(entry.chatId);
+            } catch (RuntimeException e) {
+                System.err.println("Error handling quiet chat " + entry.chatId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Moves to the next tick and sorts the rooms due in it
+    private synchronized void advance(List<Entry> idle, List<Entry> ended) {
+        cursor = (cursor + 1) % buckets.size();
+        cursorTime += tickMillis;
+        List<Entry> due = buckets.get(cursor);
+        buckets.set(cursor, new ArrayList<>());
+        for (Entry entry : due) {
+            long quiet = cursorTime - entry.lastActivity;
+            if (entry.stage == Stage.ACTIVE && quiet < idleMillis) {
+                schedule(entry, entry.lastActivity + idleMillis);
+            } else if (entry.stage == Stage.ACTIVE) {
+                entry.stage = Stage.IDLE;
+                idle.add(entry);
+                scheduleEnd(entry);
+            } else if (quiet < idleMillis) {
+                // Touched while being reported idle, it starts over
+                entry.stage = Stage.ACTIVE;
+                schedule(entry, entry.lastActivity + idleMillis);
+            } else if (quiet < endMillis) {
+                schedule(entry, entry.lastActivity + endMillis);
+            } else {
+                ended.add(entry);
+                entry.scheduled = false;
+                rooms.remove(entry.chatId, entry);
+            }
+        }
+    }
+
+    // Idle rooms stay in the wheel only if they can still be reported abandoned
+    private void scheduleEnd(Entry entry) {
+        if (endMillis > 0) {
+            schedule(entry, entry.lastActivity + endMillis);
+        } else {
+            entry.scheduled = false;
+            rooms.remove(entry.chatId, entry);
+        }
+    }
+
+    // Deadlines beyond one turn of the wheel go in the last bucket and are rescheduled from there
+    private void schedule(Entry entry, long dueAt) {
+        long ticks = (dueAt - cursorTime + tickMillis - 1) / tickMillis;
+        ticks = Math.max(1, Math.min(ticks, buckets.size() - 1));
+        buckets.get((int) ((cursor + ticks) % buckets.size())).add(entry);
+    }
+
+    public String describeMetrics() {
+        return "Idle rooms: tracked=" + rooms.size() + ", idle after " + idleMillis + "ms"
+                + (endMillis > 0 ? ", ended after " + endMillis + "ms" : "")
+                + ", released=" + idled.sum() + ", ended=" + abandoned.sum();
+    }
+
+    private enum Stage { ACTIVE, IDLE }
+
+    private static final class Entry {
+        final int chatId;
+        volatile long lastActivity;
+        volatile Stage stage = Stage.ACTIVE;
+        // Guarded by the tracker's monitor
+        boolean scheduled;
+
+        Entry(int chatId) {
+            this.chatId = chatId;
+        }
+    }
+}
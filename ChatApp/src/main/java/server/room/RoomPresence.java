@@ -0,0 +1,181 @@
+package server.room;
+
+import server.observer.PresenceUpdate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Who is in one chat, by nickname, with a version that goes up every time a change is
+ * sent out.
+ *
+ * Joins and leaves apply to the members at once but are only collected as pending;
+ * {@link #drain()} turns everything pending into one update, so a burst of joins can go
+ * out as a single change. Only the latest change of a nickname is kept: a join followed
+ * by a leave goes out as a leave, which members that never saw the join simply ignore.
+ *
+ * A nickname can be present through more than one client, e.g. while a stale stub is
+ * still registered after a reconnect; it only joins with its first client and leaves
+ * with its last. Updates reach every member in version order as long as a room's
+ * updates are drained and sent by one thread at a time (see {@link PresenceCoalescer});
+ * a snapshot for a single new member is created and queued under this object's monitor,
+ * so it is never older than a delta queued to that member before it.
+ */
+public class RoomPresence {
+    private final int chatId;
+    private final int snapshotInterval;
+    private final Map<String, Member> members = new LinkedHashMap<>();
+    private long version;
+    private int changesSinceSnapshot;
+
+    private final Map<String, Integer> pendingJoined = new LinkedHashMap<>();
+    private final Map<String, Integer> pendingLeft = new LinkedHashMap<>();
+    private int pendingChanges;
+    private long pendingTimeSum;
+    private long pendingSince;
+    private boolean flushScheduled;
+
+    /**
+     * @param snapshotInterval every this many updates a full snapshot is sent instead of a delta
+     */
+    RoomPresence(int chatId, int snapshotInterval) {
+        this.chatId = chatId;
+        this.snapshotInterval = Math.max(1, snapshotInterval);
+    }
+
+    /**
+     * @return true if the nickname was not present before, i.e. there is a change to send
+     */
+    public synchronized boolean join(String nickname, int userId) {
+        Member member = members.get(nickname);
+        if (member != null) {
+            member.clients++;
+            if (userId != 0) {
+                member.userId = userId;
+            }
+            return false;
+        }
+        members.put(nickname, new Member(userId));
+        pendingLeft.remove(nickname);
+        pendingJoined.put(nickname, userId);
+        addPending();
+        return true;
+    }
+
+    /**
+     * @return true if the nickname's last client left, i.e. there is a change to send
+     */
+    public synchronized boolean leave(String nickname) {
+        Member member = members.get(nickname);
+        if (member == null || --member.clients > 0) {
+            return false;
+        }
+        members.remove(nickname);
+        pendingJoined.remove(nickname);
+        pendingLeft.put(nickname, member.userId);
+        addPending();
+        return true;
+    }
+
+    private void addPending() {
+        long now = System.currentTimeMillis();
+        if (pendingChanges++ == 0) {
+            pendingSince = now;
+        }
+        pendingTimeSum += now;
+    }
+
+    /**
+     * Turns the pending changes into the next update and clears them.
+     *
+     * @return the update, or null if nothing is pending
+     */
+    public synchronized PresenceUpdate drain() {
+        flushScheduled = false;
+        pendingChanges = 0;
+        pendingTimeSum = 0;
+        if (pendingJoined.isEmpty() && pendingLeft.isEmpty()) {
+            return null;
+        }
+        version++;
+        PresenceUpdate update;
+        if (++changesSinceSnapshot >= snapshotInterval) {
+            changesSinceSnapshot = 0;
+            update = snapshot();
+        } else {
+            update = PresenceUpdate.delta(chatId, version, new LinkedHashMap<>(pendingJoined),
+                    new LinkedHashMap<>(pendingLeft));
+        }
+        pendingJoined.clear();
+        pendingLeft.clear();
+        return update;
+    }
+
+    /**
+     * Number of joins and leaves since the last drain.
+     */
+    public synchronized int getPendingChanges() {
+        return pendingChanges;
+    }
+
+    /**
+     * Time of the oldest pending change, valid while there are any.
+     */
+    public synchronized long getPendingSince() {
+        return pendingSince;
+    }
+
+    /**
+     * Total time the pending changes have waited so far.
+     */
+    public synchronized long getPendingWaitMillis(long now) {
+        return pendingChanges * now - pendingTimeSum;
+    }
+
+    /**
+     * Marks a flush as scheduled.
+     *
+     * @return false if one already was
+     */
+    public synchronized boolean scheduleFlush() {
+        if (flushScheduled) {
+            return false;
+        }
+        flushScheduled = true;
+        return true;
+    }
+
+    /**
+     * All current members, including pending changes, at the current version. Changes
+     * sent later repeat the pending ones, which is harmless as they only add members
+     * that are already there and remove ones that are gone.
+     */
+    public synchronized PresenceUpdate snapshot() {
+        Map<String, Integer> current = new LinkedHashMap<>();
+        for (Map.Entry<String, Member> entry : members.entrySet()) {
+            current.put(entry.getKey(), entry.getValue().userId);
+        }
+        return PresenceUpdate.snapshot(chatId, version, current);
+    }
+
+    public synchronized boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    public synchronized String[] nicknames() {
+        return members.keySet().toArray(new String[0]);
+    }
+
+    public int getChatId() {
+        return chatId;
+    }
+
+    private static final class Member {
+        int userId;
+        int clients = 1;
+
+        Member(int userId) {
+            this.userId = userId;
+        }
+    }
+}
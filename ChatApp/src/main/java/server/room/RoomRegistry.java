@@ -0,0 +1,169 @@
+package server.room;
+
+import server.observer.ChatClient;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread-safe registry of which clients are in which chat room.
+ *
+ * Rooms are spread over lock stripes keyed by chat id, so joins and leaves in different
+ * rooms rarely contend. Member lists are copy-on-write snapshots: broadcasts take the
+ * current snapshot with an optimistic (lock-free) lookup and iterate it without locking,
+ * while joins and leaves only ever replace it.
+ *
+ * The room each client is in is recorded first; a room's member list is then brought in
+ * line with that record under the room's stripe lock. Calls for the same client may
+ * therefore race (e.g. from two rooms' event loops) and still leave it in exactly the
+ * room of the last call to take effect.
+ */
+public class RoomRegistry {
+    public static final int NO_ROOM = -1;
+
+    private static final int DEFAULT_STRIPES = 16;
+
+    private final Stripe[] stripes;
+    private final Map<ChatClient, Integer> clientRooms = new ConcurrentHashMap<>();
+    private final AtomicInteger roomCount = new AtomicInteger();
+
+    public RoomRegistry() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public RoomRegistry(int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Puts a client in a room, taking it out of any room it was in before.
+     *
+     * @return true if the client was not already a member of this room
+     */
+    public boolean join(int chatId, ChatClient client) {
+        Integer previous = clientRooms.put(client, chatId);
+        if (previous != null && previous != chatId) {
+            reconcile(previous, client);
+        }
+        return reconcile(chatId, client) > 0;
+    }
+
+    /**
+     * Takes a client out of whatever room it is in.
+     *
+     * @return the chat id the client left, or {@link #NO_ROOM}
+     */
+    public int leave(ChatClient client) {
+        Integer chatId = clientRooms.remove(client);
+        if (chatId == null) {
+            return NO_ROOM;
+        }
+        reconcile(chatId, client);
+        return chatId;
+    }
+
+    /**
+     * Takes a client out of a specific room.
+     *
+     * @return true if the client was a member of the room
+     */
+    public boolean leave(ChatClient client, int chatId) {
+        clientRooms.remove(client, chatId);
+        return reconcile(chatId, client) < 0;
+    }
+
+    /**
+     * @return the chat id the client is in, or {@link #NO_ROOM}
+     */
+    public int roomOf(ChatClient client) {
+        Integer chatId = clientRooms.get(client);
+        return chatId != null ? chatId : NO_ROOM;
+    }
+
+    /**
+     * Current members of a room. The returned array is a shared snapshot and must not
+     * be modified; later joins and leaves do not affect it.
+     */
+    public ChatClient[] members(int chatId) {
+        Room room = stripeFor(chatId).find(chatId);
+        return room != null ? room.members : Room.NO_MEMBERS;
+    }
+
+    public int memberCount(int chatId) {
+        return members(chatId).length;
+    }
+
+    public int roomCount() {
+        return roomCount.get();
+    }
+
+    public int clientCount() {
+        return clientRooms.size();
+    }
+
+    /**
+     * Adds the client to or removes it from a room, depending on whether the room is the
+     * one recorded for it. Whichever call reconciles a room last reads the latest record,
+     * so racing calls settle on it.
+     *
+     * @return 1 if the client was added, -1 if it was removed, 0 if neither
+     */
+    private int reconcile(int chatId, ChatClient client) {
+        Stripe stripe = stripeFor(chatId);
+        long stamp = stripe.lock.writeLock();
+        try {
+            Integer current = clientRooms.get(client);
+            if (current != null && current == chatId) {
+                int before = stripe.table.size();
+                boolean added = stripe.table.getOrCreate(chatId).add(client);
+                if (stripe.table.size() > before) {
+                    roomCount.incrementAndGet();
+                }
+                return added ? 1 : 0;
+            }
+            Room room = stripe.table.get(chatId);
+            if (room == null || !room.remove(client)) {
+                return 0;
+            }
+            if (room.members.length == 0) {
+                stripe.table.remove(chatId);
+                roomCount.decrementAndGet();
+            }
+            return -1;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    private Stripe stripeFor(int chatId) {
+        // Chat ids are sequential, so the low bits already spread rooms evenly
+        return stripes[chatId & (stripes.length - 1)];
+    }
+
+    private static final class Stripe {
+        final StampedLock lock = new StampedLock();
+        final IntRoomTable table = new IntRoomTable();
+
+        Room find(int chatId) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                Room room = table.get(chatId);
+                if (lock.validate(stamp)) {
+                    return room;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return table.get(chatId);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package server.room;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Hands out per-room sequence numbers. A room's sequence number is the position of
+ * the next line in its chat log, so it survives restarts without separate storage:
+ * the first time a room is used, its counter is recovered by counting the lines of
+ * the log.
+ *
+ * Callers that need log order and delivery order to agree stamp, log and enqueue a
+ * message on the room's event loop (see {@link RoomEventLoops}).
+ */
+public class RoomSequencer {
+    private final Map<Integer, Sequence> sequences = new ConcurrentHashMap<>();
+    private final ToLongFunction<String> lineCounter;
+
+    /**
+     * @param lineCounter returns the number of lines in a log file, 0 if it does not exist
+     */
+    public RoomSequencer(ToLongFunction<String> lineCounter) {
+        this.lineCounter = lineCounter;
+    }
+
+    /**
+     * The sequence of a room, recovered from its log if this is the first use or if the
+     * room has moved to a different log file.
+     */
+    public Sequence forRoom(int chatId, String logFile) {
+        Sequence sequence = sequences.get(chatId);
+        if (sequence != null && sequence.matches(logFile)) {
+            return sequence;
+        }
+        // Count outside the map so recovering one room does not hold up others
+        Sequence recovered = new Sequence(logFile, logFile != null ? lineCounter.applyAsLong(logFile) : 0);
+        if (sequence == null) {
+            Sequence raced = sequences.putIfAbsent(chatId, recovered);
+            return raced != null ? raced : recovered;
+        }
+        return sequences.replace(chatId, sequence, recovered) ? recovered : sequences.get(chatId);
+    }
+
+    /**
+     * The room whose counter belongs to a log file, or -1 if no counter does.
+     */
+    public int roomOf(String logFile) {
+        for (Map.Entry<Integer, Sequence> entry : sequences.entrySet()) {
+            if (entry.getValue().matches(logFile)) {
+                return entry.getKey();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Last sequence number handed out in a room, or -1 if none is known.
+     */
+    public long lastSequence(int chatId) {
+        Sequence sequence = sequences.get(chatId);
+        return sequence != null ? sequence.next.get() - 1 : -1;
+    }
+
+    /**
+     * Forgets a room's counter; it is recovered from the log again on next use, so the
+     * log must have been written out first.
+     *
+     * @return the log file the counter belonged to, or null
+     */
+    public String release(int chatId) {
+        Sequence sequence = sequences.remove(chatId);
+        return sequence != null ? sequence.logFile : null;
+    }
+
+    public int size() {
+        return sequences.size();
+    }
+
+    public static final class Sequence {
+        private volatile String logFile;
+        private final AtomicLong next;
+
+        Sequence(String logFile, long next) {
+            this.logFile = logFile;
+            this.next = new AtomicLong(next);
+        }
+
+        /**
+         * Returns the next sequence number of the room.
+         */
+        public long next() {
+            return next.getAndIncrement();
+        }
+
+        public long peek() {
+            return next.get();
+        }
+
+        /**
+         * Records the log file created for a room that had none; the counter keeps running.
+         * Must be called before the file name is published to other threads.
+         */
+        public void attach(String logFile) {
+            this.logFile = logFile;
+        }
+
+        boolean matches(String logFile) {
+            return Objects.equals(this.logFile, logFile);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package server.room;
+
+/**
+ * What a room loop does while its ring is empty, trading CPU for wake-up latency.
+ */
+public enum WaitStrategy {
+    /** Park until a producer wakes the loop up; no CPU while idle, a few microseconds to wake */
+    BLOCKING,
+    /** Spin briefly, then yield, then sleep in short naps; little CPU, wakes within a nap */
+    SLEEPING,
+    /** Spin briefly, then keep yielding the core; wakes fast but keeps a core busy when others are idle */
+    YIELDING,
+    /** Never give up the core; lowest latency, burns one core per loop */
+    BUSY_SPIN
+}
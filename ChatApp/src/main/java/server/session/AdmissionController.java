@@ -0,0 +1,96 @@
+package server.session;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides whether the server takes on a new client or a new room member, so that a
+ * spike of joins is turned away with a clear error instead of pushing the server into
+ * running out of memory.
+ *
+ * The counts it checks are kept up to date by their owners as clients, rooms and
+ * buffered messages come and go, so a check only reads a few counters. Checks and the
+ * registrations they guard are not one atomic step; simultaneous registrations can
+ * overshoot a limit by at most their number. A limit of 0 disables that check.
+ */
+public class AdmissionController {
+    private final int maxSessions;
+    private final int maxRooms;
+    private final int maxMembersPerRoom;
+    private final long maxBufferedBytes;
+    private final IntSupplier sessionCount;
+    private final IntSupplier roomCount;
+    private final LongSupplier bufferedBytes;
+
+    private final LongAdder refusedSessions = new LongAdder();
+    private final LongAdder refusedRooms = new LongAdder();
+    private final LongAdder refusedMembers = new LongAdder();
+    private final LongAdder refusedMemory = new LongAdder();
+
+    /**
+     * @param bufferedBytes bytes currently held in in-memory message buffers and outbound queues
+     */
+    public AdmissionController(int maxSessions, int maxRooms, int maxMembersPerRoom, long maxBufferedBytes,
+                               IntSupplier sessionCount, IntSupplier roomCount, LongSupplier bufferedBytes) {
+        this.maxSessions = maxSessions;
+        this.maxRooms = maxRooms;
+        this.maxMembersPerRoom = maxMembersPerRoom;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.sessionCount = sessionCount;
+        this.roomCount = roomCount;
+        this.bufferedBytes = bufferedBytes;
+    }
+
+    /**
+     * Checks whether a new client may connect.
+     *
+     * @return null if it may, otherwise the reason it is refused
+     */
+    public String checkSession() {
+        if (maxSessions > 0 && sessionCount.getAsInt() >= maxSessions) {
+            refusedSessions.increment();
+            return "The server is full (" + maxSessions + " users connected), please try again later";
+        }
+        return checkMemory();
+    }
+
+    /**
+     * Checks whether a client may join a room.
+     *
+     * @param members current members of the room, 0 if the room is not open yet
+     * @return null if it may, otherwise the reason it is refused
+     */
+    public String checkJoin(int members) {
+        if (members == 0 && maxRooms > 0 && roomCount.getAsInt() >= maxRooms) {
+            refusedRooms.increment();
+            return "Too many chats are open on the server (" + maxRooms + "), please try again later";
+        }
+        if (maxMembersPerRoom > 0 && members >= maxMembersPerRoom) {
+            refusedMembers.increment();
+            return "This chat is full (" + maxMembersPerRoom + " members)";
+        }
+        return checkMemory();
+    }
+
+    private String checkMemory() {
+        if (maxBufferedBytes > 0 && bufferedBytes.getAsLong() >= maxBufferedBytes) {
+            refusedMemory.increment();
+            return "The server is busy, please try again later";
+        }
+        return null;
+    }
+
+    public String describeMetrics() {
+        return "Admission: sessions=" + usage(sessionCount.getAsInt(), maxSessions)
+                + ", rooms=" + usage(roomCount.getAsInt(), maxRooms)
+                + ", members per room<=" + (maxMembersPerRoom > 0 ? maxMembersPerRoom : "unlimited")
+                + ", buffered bytes=" + usage(bufferedBytes.getAsLong(), maxBufferedBytes)
+                + ", refused sessions=" + refusedSessions.sum() + " rooms=" + refusedRooms.sum()
+                + " members=" + refusedMembers.sum() + " memory=" + refusedMemory.sum();
+    }
+
+    private static String usage(long used, long limit) {
+        return limit > 0 ? used + "/" + limit + " (" + used * 100 / limit + "%)" : used + "/unlimited";
+    }
+}
@@ -0,0 +1,88 @@
+package server.session;
+
+import server.observer.ChatClient;
+
+/**
+ * A connected client: its callback stub and the nickname it registered with.
+ */
+public class ClientSession {
+    private final ChatClient client;
+    private final String nickname;
+    private final long connectedAt;
+    private volatile int userId;
+    private volatile Role role = Role.USER;
+    // 0 until the client first renews a lease; clients that never do are not reaped
+    private volatile long leaseExpiresAt;
+    // Set once the client turns out to predate updatePresence
+    private volatile boolean legacyPresence;
+
+    ClientSession(ChatClient client, String nickname) {
+        this.client = client;
+        this.nickname = nickname;
+        this.connectedAt = System.currentTimeMillis();
+    }
+
+    public ChatClient getClient() {
+        return client;
+    }
+
+    public String getNickname() {
+        return nickname;
+    }
+
+    public long getConnectedAt() {
+        return connectedAt;
+    }
+
+    /**
+     * Database id of the user behind this session, or 0 if it has not been resolved.
+     */
+    public int getUserId() {
+        return userId;
+    }
+
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    /**
+     * The user's role, {@link Role#USER} until the user has been looked up.
+     */
+    public Role getRole() {
+        return role;
+    }
+
+    public void setRole(Role role) {
+        this.role = role;
+    }
+
+    /**
+     * Extends the session's lease to the given time.
+     */
+    public void renewLease(long expiresAt) {
+        this.leaseExpiresAt = expiresAt;
+    }
+
+    public long getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+
+    /**
+     * True if the client holds a lease and has let it run out.
+     */
+    public boolean isLeaseExpired(long now) {
+        long expiresAt = leaseExpiresAt;
+        return expiresAt != 0 && now >= expiresAt;
+    }
+
+    /**
+     * True if the client only understands full user lists.
+     */
+    public boolean isLegacyPresence() {
+        return legacyPresence;
+    }
+
+    public void markLegacyPresence() {
+        this.legacyPresence = true;
+    }
+}
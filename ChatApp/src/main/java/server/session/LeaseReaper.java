@@ -0,0 +1,120 @@
+package server.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Finds sessions whose lease has run out, using a timing wheel: a ring of buckets, one
+ * per tick, where each session sits in the bucket of the tick its lease ends.
+ *
+ * Renewing a lease only moves the session's expiry time; the session is moved to a later
+ * bucket when its current one comes round and the lease turns out to be still valid. A
+ * tick therefore only looks at the sessions due in it, however many are connected.
+ */
+public class LeaseReaper {
+    private final long tickMillis;
+    private final List<List<ClientSession>> buckets;
+    private final Set<ClientSession> tracked = ConcurrentHashMap.newKeySet();
+    private final Predicate<ClientSession> isActive;
+    private final Consumer<ClientSession> onExpired;
+    private final Thread ticker;
+    private final LongAdder reaped = new LongAdder();
+
+    private int cursor;
+    private long cursorTime;
+    private volatile boolean running = true;
+
+    /**
+     * @param isActive  false for sessions that were removed some other way and can be forgotten
+     * @param onExpired called on the reaper thread for each session whose lease ran out
+     */
+    public LeaseReaper(long tickMillis, int wheelSize, Predicate<ClientSession> isActive,
+                       Consumer<ClientSession> onExpired) {
+        this.tickMillis = Math.max(1, tickMillis);
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < Math.max(2, wheelSize); i++) {
+            buckets.add(new ArrayList<>());
+        }
+        this.isActive = isActive;
+        this.onExpired = onExpired;
+        this.cursorTime = System.currentTimeMillis();
+        this.ticker = new Thread(this::run, "chat-lease-reaper");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * Starts watching a session's lease, if it is not watched already.
+     */
+    public void track(ClientSession session) {
+        if (tracked.add(session)) {
+            synchronized (this) {
+                schedule(session);
+            }
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        ticker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                Thread.sleep(tickMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return;
+                }
+            }
+            // Catch up on ticks missed while the thread was not scheduled
+            while (running && cursorTime + tickMillis <= System.currentTimeMillis()) {
+                for (ClientSession session : advance()) {
+                    reaped.increment();
+                    try {
+                        onExpired.accept(session);
+                    } catch (RuntimeException e) {
+                        System.err.println("Error reaping session of " + session.getNickname() + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    // Moves to the next tick and returns the sessions that expired in it
+    private synchronized List<ClientSession> advance() {
+        cursor = (cursor + 1) % buckets.size();
+        cursorTime += tickMillis;
+        List<ClientSession> due = buckets.get(cursor);
+        buckets.set(cursor, new ArrayList<>());
+        List<ClientSession> expired = new ArrayList<>();
+        for (ClientSession session : due) {
+            if (!isActive.test(session)) {
+                tracked.remove(session);
+            } else if (session.isLeaseExpired(cursorTime)) {
+                tracked.remove(session);
+                expired.add(session);
+            } else {
+                schedule(session);
+            }
+        }
+        return expired;
+    }
+
+    // Leases beyond one turn of the wheel go in the last bucket and are rescheduled from there
+    private void schedule(ClientSession session) {
+        long ticks = (session.getLeaseExpiresAt() - cursorTime + tickMillis - 1) / tickMillis;
+        ticks = Math.max(1, Math.min(ticks, buckets.size() - 1));
+        buckets.get((int) ((cursor + ticks) % buckets.size())).add(session);
+    }
+
+    public String describeMetrics() {
+        return "Leases: tracked=" + tracked.size() + ", reaped=" + reaped.sum();
+    }
+}
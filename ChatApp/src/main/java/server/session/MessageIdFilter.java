@@ -0,0 +1,154 @@
+package server.session;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recognises messages a sender has already submitted, by the id the client generated
+ * for them, so a client can retry a send that timed out without posting it twice.
+ *
+ * Each sender keeps the ids of its last messages, up to a fixed number and no older
+ * than a time window, in an open-addressing set of longs. Id 0 means "no id".
+ */
+public class MessageIdFilter {
+    public static final long NO_ID = 0;
+
+    private final int maxIdsPerSender;
+    private final long windowMillis;
+    private final Map<String, SenderIds> senders = new ConcurrentHashMap<>();
+    private final LongAdder duplicates = new LongAdder();
+
+    public MessageIdFilter(int maxIdsPerSender, long windowMillis) {
+        this.maxIdsPerSender = Math.max(1, maxIdsPerSender);
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Records a message id for a sender.
+     *
+     * @return false if the sender already submitted a message with this id within the window
+     */
+    public boolean firstSeen(String sender, long messageId) {
+        if (messageId == NO_ID) {
+            return true;
+        }
+        SenderIds ids = senders.computeIfAbsent(sender, s -> new SenderIds(maxIdsPerSender));
+        if (ids.add(messageId, System.currentTimeMillis(), windowMillis)) {
+            return true;
+        }
+        duplicates.increment();
+        return false;
+    }
+
+    /**
+     * Forgets one id again, for a message that was recorded but then could not be
+     * accepted, so that a retry with the same id goes through.
+     */
+    public void release(String sender, long messageId) {
+        SenderIds ids = senders.get(sender);
+        if (messageId != NO_ID && ids != null) {
+            ids.release(messageId);
+        }
+    }
+
+    /**
+     * Drops the ids remembered for a sender, e.g. when they log out.
+     */
+    public void forget(String sender) {
+        senders.remove(sender);
+    }
+
+    public String describeMetrics() {
+        return "Message ids: senders=" + senders.size() + ", duplicates dropped=" + duplicates.sum();
+    }
+
+    private static final class SenderIds {
+        // Insertion order, for expiry by age and by count
+        private final long[] order;
+        private final long[] times;
+        private int head;
+        private int count;
+        // Linear probing table of ids, 0 marks a free slot; kept at most half full
+        private final long[] table;
+        private final int mask;
+
+        SenderIds(int capacity) {
+            order = new long[capacity];
+            times = new long[capacity];
+            table = new long[Integer.highestOneBit(capacity * 2 - 1) << 1];
+            mask = table.length - 1;
+        }
+
+        synchronized boolean add(long id, long now, long windowMillis) {
+            while (count > 0 && times[head] < now - windowMillis) {
+                removeOldest();
+            }
+            if (table[indexOf(id)] == id) {
+                return false;
+            }
+            if (count == order.length) {
+                removeOldest();
+            }
+            table[indexOf(id)] = id;
+            int tail = (head + count) % order.length;
+            order[tail] = id;
+            times[tail] = now;
+            count++;
+            return true;
+        }
+
+        synchronized void release(long id) {
+            for (int i = 0; i < count; i++) {
+                int slot = (head + i) % order.length;
+                if (order[slot] == id) {
+                    // Left in the insertion order as a hole that expires like any other id
+                    order[slot] = NO_ID;
+                    remove(id);
+                    return;
+                }
+            }
+        }
+
+        private void removeOldest() {
+            if (order[head] != NO_ID) {
+                remove(order[head]);
+            }
+            head = (head + 1) % order.length;
+            count--;
+        }
+
+        // Slot holding the id, or the free slot where it would go
+        private int indexOf(long id) {
+            int slot = spread(id) & mask;
+            while (table[slot] != 0 && table[slot] != id) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        // Backward-shift deletion keeps probe chains intact without tombstones
+        private void remove(long id) {
+            int slot = indexOf(id);
+            if (table[slot] != id) {
+                return;
+            }
+            int free = slot;
+            int next = (slot + 1) & mask;
+            while (table[next] != 0) {
+                int home = spread(table[next]) & mask;
+                if (((next - home) & mask) >= ((next - free) & mask)) {
+                    table[free] = table[next];
+                    free = next;
+                }
+                next = (next + 1) & mask;
+            }
+            table[free] = 0;
+        }
+
+        private static int spread(long id) {
+            long h = id * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
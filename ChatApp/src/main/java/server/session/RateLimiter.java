@@ -0,0 +1,117 @@
+package server.session;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token buckets per nickname for one kind of call, with separate limits per role.
+ *
+ * A bucket is a single AtomicLong holding the time at which it will be full again (the
+ * "theoretical arrival time" of the generic cell rate algorithm): a call is allowed if
+ * that time is no more than a burst's worth of calls ahead, and moves it on by one
+ * call's worth. Checking a call is a map lookup and a CAS, no lock is taken.
+ *
+ * A full bucket behaves exactly like a missing one, so a background thread sweeps full
+ * buckets from time to time, whoever they belong to. Buckets that are not full stay, so
+ * reconnecting does not reset a limit.
+ */
+public class RateLimiter {
+    private static final long SWEEP_INTERVAL_SECONDS = 60;
+
+    private final String name;
+    private final long[] intervalNanos = new long[Role.values().length];
+    private final long[] toleranceNanos = new long[Role.values().length];
+    private final Map<Role, Map<String, AtomicLong>> buckets = new EnumMap<>(Role.class);
+    private final ScheduledExecutorService sweeper;
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public RateLimiter(String name) {
+        this.name = name;
+        for (Role role : Role.values()) {
+            buckets.put(role, new ConcurrentHashMap<>());
+        }
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-rate-limit-sweeper-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sets the limit of a role.
+     *
+     * @param perMinute sustained calls per minute; 0 means unlimited
+     * @param burst     calls allowed back to back before the rate applies
+     */
+    public RateLimiter limit(Role role, int perMinute, int burst) {
+        long interval = perMinute > 0 ? TimeUnit.MINUTES.toNanos(1) / perMinute : 0;
+        intervalNanos[role.ordinal()] = interval;
+        toleranceNanos[role.ordinal()] = interval * (Math.max(1, burst) - 1);
+        return this;
+    }
+
+    /**
+     * Takes a token for a call.
+     *
+     * @return 0 if the call is allowed, otherwise the milliseconds until it would be
+     */
+    public long tryAcquire(String nickname, Role role) {
+        long interval = intervalNanos[role.ordinal()];
+        if (interval == 0) {
+            return 0;
+        }
+        AtomicLong bucket = buckets.get(role)
+                .computeIfAbsent(nickname, k -> new AtomicLong(System.nanoTime()));
+        long tolerance = toleranceNanos[role.ordinal()];
+        while (true) {
+            long now = System.nanoTime();
+            long fullAt = bucket.get();
+            long start = fullAt - now > 0 ? fullAt : now;
+            long wait = start - tolerance - now;
+            if (wait > 0) {
+                rejected.increment();
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+            }
+            if (bucket.compareAndSet(fullAt, start + interval)) {
+                allowed.increment();
+                return 0;
+            }
+        }
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        for (Map<String, AtomicLong> roleBuckets : buckets.values()) {
+            roleBuckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+        }
+    }
+
+    public void shutdown() {
+        sweeper.shutdown();
+    }
+
+    public String describeMetrics() {
+        int tracked = 0;
+        for (Map<String, AtomicLong> roleBuckets : buckets.values()) {
+            tracked += roleBuckets.size();
+        }
+        StringBuilder limits = new StringBuilder();
+        for (Role role : Role.values()) {
+            long interval = intervalNanos[role.ordinal()];
+            limits.append(limits.length() > 0 ? ", " : "").append(role).append(' ')
+                  .append(interval > 0 ? TimeUnit.MINUTES.toNanos(1) / interval + "/min burst "
+                          + (toleranceNanos[role.ordinal()] / interval + 1) : "unlimited");
+        }
+        return "Rate limit " + name + ": " + limits + ", allowed=" + allowed.sum()
+                + ", rejected=" + rejected.sum() + ", tracked=" + tracked;
+    }
+}
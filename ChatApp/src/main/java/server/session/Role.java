@@ -0,0 +1,9 @@
+package server.session;
+
+/**
+ * What a connected user is allowed to do, as far as the server's limits go.
+ */
+public enum Role {
+    USER,
+    ADMIN
+}
@@ -0,0 +1,99 @@
+package server.session;
+
+import server.observer.ChatClient;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Connected sessions indexed both by client stub and by nickname, so that every lookup
+ * on the message path is a single hash probe instead of a scan over all clients.
+ *
+ * Both maps are updated together on register and remove. When the same nickname opens a
+ * new client (e.g. re-entering a chat) the nickname index moves to the newest session;
+ * the older session stays reachable by its stub until it is removed.
+ */
+public class SessionIndex {
+    private final Map<ChatClient, ClientSession> byClient = new ConcurrentHashMap<>();
+    private final Map<String, ClientSession> byNickname = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a new session, refusing it if either the client or the nickname is
+     * already connected.
+     *
+     * @return the new session, or null if it was refused
+     */
+    public ClientSession register(ChatClient client, String nickname) {
+        ClientSession session = new ClientSession(client, nickname);
+        if (byNickname.putIfAbsent(nickname, session) != null) {
+            return null;
+        }
+        if (byClient.putIfAbsent(client, session) != null) {
+            byNickname.remove(nickname, session);
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Returns the client's session, creating it if needed. A new session takes over
+     * the nickname from any older session using it.
+     */
+    public ClientSession bind(ChatClient client, String nickname) {
+        ClientSession existing = byClient.get(client);
+        if (existing != null) {
+            return existing;
+        }
+        ClientSession session = new ClientSession(client, nickname);
+        ClientSession raced = byClient.putIfAbsent(client, session);
+        if (raced != null) {
+            return raced;
+        }
+        byNickname.put(nickname, session);
+        return session;
+    }
+
+    public ClientSession get(ChatClient client) {
+        return byClient.get(client);
+    }
+
+    public ClientSession findByNickname(String nickname) {
+        return byNickname.get(nickname);
+    }
+
+    public String nicknameOf(ChatClient client) {
+        ClientSession session = byClient.get(client);
+        return session != null ? session.getNickname() : null;
+    }
+
+    public boolean isConnected(ChatClient client) {
+        return byClient.containsKey(client);
+    }
+
+    public boolean isNicknameConnected(String nickname) {
+        return byNickname.containsKey(nickname);
+    }
+
+    public ClientSession remove(ChatClient client) {
+        ClientSession session = byClient.remove(client);
+        if (session != null) {
+            byNickname.remove(session.getNickname(), session);
+        }
+        return session;
+    }
+
+    public Collection<ClientSession> sessions() {
+        return Collections.unmodifiableCollection(byClient.values());
+    }
+
+    public Set<String> nicknames() {
+        return Collections.unmodifiableSet(byNickname.keySet());
+    }
+
+    public int size() {
+        return byClient.size();
+    }
+}
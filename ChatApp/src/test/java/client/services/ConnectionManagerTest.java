@@ -0,0 +1,66 @@
+package client.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import server.rmi.ChatBusyException;
+import server.rmi.ChatServer;
+import server.rmi.RateLimitedException;
+
+import java.lang.reflect.Proxy;
+import java.rmi.NoSuchObjectException;
+import java.rmi.ServerException;
+import java.rmi.server.UnicastRemoteObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Refusals thrown by a real exported server reach the client as their own types, so a
+ * busy chat or a rate limit is not mistaken for a broken connection.
+ */
+class ConnectionManagerTest {
+    private ChatServer exported;
+    private ChatServer stub;
+
+    @BeforeEach
+    void export() throws Exception {
+        exported = (ChatServer) Proxy.newProxyInstance(ChatServer.class.getClassLoader(),
+                new Class<?>[] {ChatServer.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "sendMessage" -> throw new ChatBusyException("The chat is busy", 250);
+                    case "registerClientToChat" -> throw new RateLimitedException("Too fast", 1500);
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "toString" -> "test server";
+                    default -> null;
+                });
+        stub = (ChatServer) UnicastRemoteObject.exportObject(exported, 0);
+    }
+
+    @AfterEach
+    void unexport() throws NoSuchObjectException {
+        UnicastRemoteObject.unexportObject(exported, true);
+    }
+
+    @Test
+    void rmiWrapsServerSideRemoteExceptions() {
+        ServerException e = assertThrows(ServerException.class, () -> stub.sendMessage("hi", "alice", 1L));
+        assertInstanceOf(ChatBusyException.class, e.getCause());
+    }
+
+    @Test
+    void busyChatArrivesAsChatBusyException() {
+        ChatBusyException e = assertThrows(ChatBusyException.class,
+                () -> ConnectionManager.sendMessage(stub, "hi", "alice", 1L));
+        assertEquals(250, e.getRetryAfterMillis());
+    }
+
+    @Test
+    void rateLimitedJoinArrivesAsRateLimitedException() {
+        RateLimitedException e = assertThrows(RateLimitedException.class,
+                () -> ConnectionManager.registerClientToChat(stub, null, "alice", 1));
+        assertEquals(1500, e.getRetryAfterMillis());
+        assertEquals("Too fast", e.getMessage());
+    }
+}
@@ -0,0 +1,117 @@
+package server.delivery;
+
+import server.observer.ChatClient;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Completion time of one broadcast against room size, on FanOut's sequential path and
+ * on its chunked parallel path.
+ *
+ * Each member stands for an outbox: handing it a delivery takes its monitor, appends to
+ * its queue and adds to a shared byte count, as ClientOutbox.offer does; the queues are
+ * emptied between broadcasts. Run after {@code mvn test-compile}:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes server.delivery.FanOutBenchmark [members...]
+ * </pre>
+ *
+ * The system properties chunkSize (default 256) and parallelism (default the number of
+ * cores) set up the parallel path. With a single core it cannot beat the sequential one.
+ */
+public class FanOutBenchmark {
+    private static final int[] DEFAULT_SIZES = {100, 1000, 5000, 20000, 50000};
+    private static final long BUDGET_NANOS = 1_000_000_000L;
+    private static final long WARMUP_NANOS = 300_000_000L;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray() : DEFAULT_SIZES;
+        int chunkSize = Integer.getInteger("chunkSize", 256);
+        int parallelism = Integer.getInteger("parallelism", Runtime.getRuntime().availableProcessors());
+
+        FanOut sequential = new FanOut(0, chunkSize, 1);
+        // A threshold of 1 sends every room bigger than one chunk down the parallel path
+        FanOut parallel = new FanOut(1, chunkSize, parallelism);
+        try {
+            run(sequential, 10_000, WARMUP_NANOS);
+            run(parallel, 10_000, WARMUP_NANOS);
+
+            System.out.printf("chunk size %d, parallelism %d, %d cores%n",
+                    chunkSize, parallelism, Runtime.getRuntime().availableProcessors());
+            System.out.printf("%8s %16s %16s %16s %16s %8s%n", "members",
+                    "seq median us", "seq p99 us", "par median us", "par p99 us", "speedup");
+            for (int members : sizes) {
+                long[] seq = run(sequential, members, BUDGET_NANOS);
+                long[] par = run(parallel, members, BUDGET_NANOS);
+                System.out.printf("%8d %16.1f %16.1f %16.1f %16.1f %8.2f%n", members,
+                        seq[0] / 1000.0, seq[1] / 1000.0, par[0] / 1000.0, par[1] / 1000.0,
+                        (double) seq[0] / par[0]);
+            }
+        } finally {
+            sequential.shutdown();
+            parallel.shutdown();
+        }
+    }
+
+    /**
+     * Broadcasts to a room of the given size until the time budget is used.
+     *
+     * @return the median and 99th percentile completion time in nanoseconds
+     */
+    private static long[] run(FanOut fanOut, int members, long budgetNanos) {
+        ChatClient[] clients = new ChatClient[members];
+        Map<ChatClient, Outbox> outboxes = new IdentityHashMap<>();
+        for (int i = 0; i < members; i++) {
+            clients[i] = client(i);
+            outboxes.put(clients[i], new Outbox());
+        }
+        AtomicLong queuedBytes = new AtomicLong();
+        MessageDelivery delivery = new MessageDelivery("alice: the usual line of chat text");
+
+        long[] times = new long[1024];
+        int count = 0;
+        long wallStart = System.nanoTime();
+        do {
+            long start = System.nanoTime();
+            fanOut.deliver(clients, client -> outboxes.get(client).offer(delivery, queuedBytes));
+            long elapsed = System.nanoTime() - start;
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+            }
+            times[count++] = elapsed;
+            outboxes.values().forEach(Outbox::clear);
+            queuedBytes.set(0);
+        } while (System.nanoTime() - wallStart < budgetNanos);
+
+        Arrays.sort(times, 0, count);
+        return new long[] {times[count / 2], times[Math.min(count - 1, (int) (count * 0.99))]};
+    }
+
+    private static ChatClient client(int id) {
+        return (ChatClient) Proxy.newProxyInstance(ChatClient.class.getClassLoader(),
+                new Class<?>[] {ChatClient.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> id;
+                    default -> null;
+                });
+    }
+
+    private static final class Outbox {
+        private final ArrayDeque<Delivery> queue = new ArrayDeque<>();
+
+        synchronized boolean offer(Delivery delivery, AtomicLong queuedBytes) {
+            queue.addLast(delivery);
+            queuedBytes.addAndGet(delivery.estimatedBytes());
+            return true;
+        }
+
+        synchronized void clear() {
+            queue.clear();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package server.delivery;
+
+import server.log.RecordType;
+import server.observer.ChatEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * CPU time per delivered message against room size, for a broadcast marshalled per
+ * recipient as a ChatEvent (receiveEvents) or as the shared encoded frame
+ * (receiveEncodedEvents).
+ *
+ * Each recipient gets its own ObjectOutputStream, as RMI marshals the arguments of every
+ * remote call separately; the network itself is left out. Run after {@code mvn test-compile}:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes server.delivery.FrameEncodingBenchmark [members...]
+ * </pre>
+ */
+public class FrameEncodingBenchmark {
+    private static final int[] DEFAULT_SIZES = {10, 100, 1000, 5000};
+    private static final long BUDGET_NANOS = 1_000_000_000L;
+    private static final long WARMUP_NANOS = 300_000_000L;
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = args.length > 0 ? parseSizes(args) : DEFAULT_SIZES;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        String body = "The quick brown fox jumps over the lazy dog, a line of about the usual length.";
+
+        // Warm up both paths so the JIT has compiled them before anything is measured
+        run(threads, 1000, body, false, WARMUP_NANOS);
+        run(threads, 1000, body, true, WARMUP_NANOS);
+
+        System.out.printf("%8s %14s %14s %8s%n", "members", "event ns/msg", "frame ns/msg", "ratio");
+        for (int members : sizes) {
+            double event = run(threads, members, body, false, BUDGET_NANOS);
+            double frame = run(threads, members, body, true, BUDGET_NANOS);
+            System.out.printf("%8d %14.0f %14.0f %8.2f%n", members, event, frame, event / frame);
+        }
+    }
+
+    /**
+     * Broadcasts messages to a room of the given size until the time budget is used.
+     *
+     * @return CPU nanoseconds per delivered message
+     */
+    private static double run(ThreadMXBean threads, int members, String body, boolean frames, long budgetNanos)
+            throws IOException {
+        long cpuStart = threads.getCurrentThreadCpuTime();
+        long wallStart = System.nanoTime();
+        long delivered = 0;
+        long sequence = 0;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+        do {
+            MessageDelivery delivery = new MessageDelivery(new ChatEvent(RecordType.MSG, 1, ++sequence, 7,
+                    System.currentTimeMillis(), "alice", body));
+            for (int i = 0; i < members; i++) {
+                buffer.reset();
+                try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+                    out.writeObject(frames ? List.of(delivery.getFrame()) : List.of(delivery.getEvent()));
+                }
+            }
+            delivered += members;
+        } while (System.nanoTime() - wallStart < budgetNanos);
+        return (double) (threads.getCurrentThreadCpuTime() - cpuStart) / delivered;
+    }
+
+    private static int[] parseSizes(String[] args) {
+        int[] sizes = new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        return sizes;
+    }
+}
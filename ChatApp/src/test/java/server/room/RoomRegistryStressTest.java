@@ -0,0 +1,186 @@
+package server.room;
+
+import org.junit.jupiter.api.Test;
+import server.observer.ChatClient;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Joins, leaves, moves and member reads from many threads at once, checking that the
+ * registry ends up consistent: every client in exactly the room it was last put in,
+ * no member lost or duplicated, and the counts matching the member lists.
+ */
+class RoomRegistryStressTest {
+    private static final int THREADS = 8;
+    private static final int CLIENTS = 200;
+    private static final int ROOMS = 12;
+    private static final int OPERATIONS = 20_000;
+
+    @Test
+    void clientsOwnedByOneThreadEndInTheirLastRoom() throws Exception {
+        RoomRegistry registry = new RoomRegistry(4);
+        ChatClient[] clients = clients(CLIENTS);
+        // Each thread works on its own slice of clients and remembers where it left them
+        List<Map<ChatClient, Integer>> expected = new ArrayList<>();
+
+        run(registry, thread -> {
+            Map<ChatClient, Integer> placed = new HashMap<>();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < OPERATIONS; i++) {
+                ChatClient client = clients[thread + THREADS * random.nextInt(CLIENTS / THREADS)];
+                int op = random.nextInt(10);
+                if (op < 6) {
+                    int chatId = random.nextInt(ROOMS);
+                    boolean wasMember = placed.getOrDefault(client, RoomRegistry.NO_ROOM) == chatId;
+                    assertEquals(!wasMember, registry.join(chatId, client));
+                    placed.put(client, chatId);
+                } else if (op < 8) {
+                    Integer chatId = placed.remove(client);
+                    assertEquals(chatId != null ? chatId : RoomRegistry.NO_ROOM, registry.leave(client));
+                } else {
+                    int chatId = random.nextInt(ROOMS);
+                    boolean wasMember = placed.remove(client, chatId);
+                    assertEquals(wasMember, registry.leave(client, chatId));
+                }
+                assertEquals(placed.getOrDefault(client, RoomRegistry.NO_ROOM), registry.roomOf(client));
+            }
+            synchronized (expected) {
+                expected.add(placed);
+            }
+        });
+
+        Map<ChatClient, Integer> all = new HashMap<>();
+        expected.forEach(all::putAll);
+        assertConsistent(registry, clients);
+        for (ChatClient client : clients) {
+            assertEquals(all.getOrDefault(client, RoomRegistry.NO_ROOM), registry.roomOf(client));
+        }
+    }
+
+    @Test
+    void racingCallsForTheSameClientLeaveItInOneRoom() throws Exception {
+        RoomRegistry registry = new RoomRegistry(4);
+        ChatClient[] clients = clients(16);
+
+        run(registry, thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < OPERATIONS; i++) {
+                ChatClient client = clients[random.nextInt(clients.length)];
+                int op = random.nextInt(10);
+                if (op < 7) {
+                    registry.join(random.nextInt(ROOMS), client);
+                } else if (op < 9) {
+                    registry.leave(client, random.nextInt(ROOMS));
+                } else {
+                    registry.leave(client);
+                }
+            }
+        });
+
+        assertConsistent(registry, clients);
+    }
+
+    /**
+     * Runs the workers while other threads keep reading member lists, which must never
+     * contain a client twice.
+     */
+    private static void run(RoomRegistry registry, Worker worker) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 2);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                readers.add(pool.submit(() -> {
+                    start.await();
+                    while (running.get()) {
+                        for (int chatId = 0; chatId < ROOMS; chatId++) {
+                            ChatClient[] members = registry.members(chatId);
+                            assertEquals(members.length, new HashSet<>(List.of(members)).size(),
+                                    "duplicate member in room " + chatId);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                workers.add(pool.submit(() -> {
+                    start.await();
+                    worker.run(thread);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : workers) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            running.set(false);
+            for (Future<?> future : readers) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void assertConsistent(RoomRegistry registry, ChatClient[] clients) {
+        Map<ChatClient, Integer> seen = new HashMap<>();
+        int rooms = 0;
+        int members = 0;
+        for (int chatId = 0; chatId < ROOMS; chatId++) {
+            ChatClient[] inRoom = registry.members(chatId);
+            assertEquals(inRoom.length, registry.memberCount(chatId));
+            if (inRoom.length > 0) {
+                rooms++;
+            }
+            members += inRoom.length;
+            for (ChatClient client : inRoom) {
+                Integer other = seen.put(client, chatId);
+                assertTrue(other == null, "client in rooms " + other + " and " + chatId);
+            }
+        }
+        for (ChatClient client : clients) {
+            assertEquals(seen.getOrDefault(client, RoomRegistry.NO_ROOM), registry.roomOf(client));
+        }
+        assertEquals(rooms, registry.roomCount());
+        assertEquals(members, registry.clientCount());
+    }
+
+    private static ChatClient[] clients(int count) {
+        ChatClient[] clients = new ChatClient[count];
+        for (int i = 0; i < count; i++) {
+            int id = i;
+            clients[i] = (ChatClient) Proxy.newProxyInstance(ChatClient.class.getClassLoader(),
+                    new Class<?>[] {ChatClient.class}, (proxy, method, args) -> switch (method.getName()) {
+                        case "equals" -> proxy == args[0];
+                        case "hashCode" -> id;
+                        case "toString" -> "client-" + id;
+                        default -> null;
+                    });
+        }
+        return clients;
+    }
+
+    @FunctionalInterface
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+}